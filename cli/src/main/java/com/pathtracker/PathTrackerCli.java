@@ -0,0 +1,381 @@
+package com.pathtracker;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Processes path files outside the game, like archived sessions:
+ *
+ * <pre>
+ * pathtracker stats|validate|compact|convert [--threads N] FILE_OR_DIRECTORY...
+ * </pre>
+ *
+ * Directories are searched recursively for path_data_ and path_visits_ files.
+ * The files are processed in parallel, one file per thread, and the results
+ * are printed in the order of the file names, followed by the totals. Path
+ * data is streamed block by block, so files of any size can be processed.
+ */
+public class PathTrackerCli {
+    private enum Kind {
+        // Main file and journal of a path, keyed by the main file
+        PATH,
+        VISITS,
+        // Path of the oldest versions, only converted
+        JSON
+    }
+
+    /**
+     * Outcome of one file, and the totals of all files.
+     */
+    private static class Result {
+        String line;
+        boolean failed = false;
+        long files = 0;
+        long points = 0;
+        long segments = 0;
+        double length = 0;
+        long visitedBlocks = 0;
+        long visits = 0;
+        long bytes = 0;
+
+        void add(Result other) {
+            this.failed |= other.failed;
+            this.files += other.files;
+            this.points += other.points;
+            this.segments += other.segments;
+            this.length += other.length;
+            this.visitedBlocks += other.visitedBlocks;
+            this.visits += other.visits;
+            this.bytes += other.bytes;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            usage();
+            return;
+        }
+        String command = args[0];
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = i + 1 < args.length ? parseThreads(args[++i]) : 0;
+                if (threads < 1) {
+                    usage();
+                    return;
+                }
+            } else {
+                inputs.add(Paths.get(args[i]));
+            }
+        }
+        if (inputs.isEmpty() || !command.equals("stats") && !command.equals("validate") && !command.equals("compact") && !command.equals("convert")) {
+            usage();
+            return;
+        }
+        try {
+            System.exit(run(command, threads, inputs) ? 0 : 1);
+        } catch (IOException e) {
+            System.err.println("[PathTracker] " + e.getMessage());
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Returns the thread count given by an argument, or 0 if it isn't a number.
+     */
+    private static int parseThreads(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: pathtracker <command> [--threads N] <files or directories>...");
+        System.err.println("  stats     points, segments, length, bounds and size of the files");
+        System.err.println("  validate  checks the block checksums, header counts and journals");
+        System.err.println("  compact   folds the journals into their main files");
+        System.err.println("  convert   rewrites raw binary and JSON files of old versions in the current format");
+        System.exit(2);
+    }
+
+    /**
+     * Runs the command on all files and prints the results. Returns false if
+     * any file failed.
+     */
+    private static boolean run(String command, int threads, List<Path> inputs) throws IOException {
+        Map<Path, Kind> files = findFiles(inputs);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Result total = new Result();
+        try {
+            List<Future<Result>> results = new ArrayList<>();
+            for (Map.Entry<Path, Kind> file : files.entrySet()) {
+                results.add(executor.submit(() -> process(command, file.getKey(), file.getValue())));
+            }
+            for (Future<Result> future : results) {
+                Result result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                if (result == null) {
+                    continue;
+                }
+                (result.failed ? System.err : System.out).println(result.line);
+                total.add(result);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        if (command.equals("stats") || command.equals("validate")) {
+            System.out.println(String.format("Total: %d files, %d points, %d segments, %.0f blocks long, %d visited blocks, %d visits, %.1f KB",
+                total.files, total.points, total.segments, total.length, total.visitedBlocks, total.visits, total.bytes / 1024.0));
+        } else {
+            System.out.println(String.format("Total: %d files, %.1f KB", total.files, total.bytes / 1024.0));
+        }
+        return !total.failed;
+    }
+
+    /**
+     * Returns the path files of the inputs, sorted by name.
+     */
+    private static Map<Path, Kind> findFiles(List<Path> inputs) throws IOException {
+        Map<Path, Kind> files = new TreeMap<>();
+        for (Path input : inputs) {
+            if (!Files.exists(input)) {
+                throw new IOException("Not found: " + input);
+            }
+            try (Stream<Path> walk = Files.walk(input)) {
+                walk.filter(Files::isRegularFile).forEach(file -> {
+                    String fileName = file.getFileName().toString();
+                    if (fileName.startsWith("path_data_") && fileName.endsWith(".bin")) {
+                        files.put(file, Kind.PATH);
+                    } else if (fileName.startsWith("path_data_") && fileName.endsWith(".journal")) {
+                        // A journal without main file is read through the main file's name.
+                        files.put(file.resolveSibling(fileName.substring(0, fileName.length() - ".journal".length()) + ".bin"), Kind.PATH);
+                    } else if (fileName.startsWith("path_data_") && fileName.endsWith(".json")) {
+                        files.put(file, Kind.JSON);
+                    } else if (fileName.startsWith("path_visits_") && fileName.endsWith(".bin")) {
+                        files.put(file, Kind.VISITS);
+                    }
+                });
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Runs the command on one file. Returns null if it doesn't apply to the file.
+     */
+    private static Result process(String command, Path file, Kind kind) {
+        Result result = new Result();
+        result.files = 1;
+        try {
+            switch (command) {
+                case "stats":
+                    if (kind == Kind.PATH) {
+                        result.line = file + ": " + pathStats(new PathDataFile(file), result);
+                    } else if (kind == Kind.VISITS) {
+                        result.line = file + ": " + visitStats(file, result);
+                    } else {
+                        return null;
+                    }
+                    break;
+                case "validate":
+                    if (kind == Kind.PATH) {
+                        result.line = file + ": " + validatePath(file, result);
+                    } else if (kind == Kind.VISITS) {
+                        result.line = file + ": OK, " + visitStats(file, result);
+                    } else {
+                        return null;
+                    }
+                    break;
+                case "compact":
+                    if (kind != Kind.PATH) {
+                        return null;
+                    }
+                    long before = fileSize(file) + fileSize(journalOf(file));
+                    new PathDataFile(file).compact();
+                    result.bytes = fileSize(file);
+                    result.line = String.format("%s: %.1f KB -> %.1f KB", file, before / 1024.0, result.bytes / 1024.0);
+                    break;
+                case "convert":
+                    if (kind == Kind.PATH) {
+                        boolean converted = new PathDataFile(file).upgradeFormat();
+                        result.bytes = fileSize(file);
+                        result.line = file + (converted ? ": converted" : ": already in the current format");
+                    } else if (kind == Kind.JSON) {
+                        result.line = convertJson(file, result);
+                    } else {
+                        return null;
+                    }
+                    break;
+                default:
+                    return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            result.failed = true;
+            result.line = file + ": " + e.getMessage();
+        }
+        return result;
+    }
+
+    /**
+     * Streams the path and counts its points, segments (see
+     * {@link PathGeometry#startsSegment}), length, bounds and the times it
+     * was recorded in.
+     */
+    private static String pathStats(PathDataFile dataFile, Result result) throws IOException {
+        long[] previous = new long[1];
+        int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        int[] timeRange = {Integer.MAX_VALUE, 0};
+        dataFile.stream((packed, joins, times, count) -> {
+            for (int i = 0; i < count; i++) {
+                if (times != null && times[i] != 0) {
+                    timeRange[0] = Math.min(timeRange[0], times[i]);
+                    timeRange[1] = Math.max(timeRange[1], times[i]);
+                }
+                long position = packed[i];
+                boolean joined = joins != null && (joins[i >> 6] & (1L << i)) != 0;
+                if (result.points == 0 || (!joined && !PathGeometry.areNeighbors(previous[0], position))) {
+                    result.segments++;
+                } else {
+                    double dx = PositionStore.unpackX(position) - PositionStore.unpackX(previous[0]);
+                    double dy = PositionStore.unpackY(position) - PositionStore.unpackY(previous[0]);
+                    double dz = PositionStore.unpackZ(position) - PositionStore.unpackZ(previous[0]);
+                    result.length += Math.sqrt(dx * dx + dy * dy + dz * dz);
+                }
+                include(bounds, PositionStore.unpackX(position), PositionStore.unpackY(position), PositionStore.unpackZ(position));
+                previous[0] = position;
+                result.points++;
+            }
+        });
+        result.bytes = dataFile.sizeOnDisk();
+        String stats = String.format("%d points, %d segments, %.0f blocks long, %s, %.1f KB",
+            result.points, result.segments, result.length, formatBounds(bounds), result.bytes / 1024.0);
+        if (timeRange[1] != 0) {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+            stats += ", recorded " + format.format(new Date(PositionStore.timeMillis(timeRange[0])))
+                + " to " + format.format(new Date(PositionStore.timeMillis(timeRange[1])));
+        }
+        return stats;
+    }
+
+    /**
+     * Checks that the header count of the main file matches its blocks (the
+     * blocks' checksums are checked while reading), and reports bytes at the
+     * end of the journal left behind by an interrupted save.
+     */
+    private static String validatePath(Path file, Result result) throws IOException {
+        if (Files.exists(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long headerCount = PathFileFormat.readCount(channel);
+                long[] blockCount = new long[1];
+                PathFileFormat.read(channel, (packed, joins, times, count) -> blockCount[0] += count);
+                if (blockCount[0] != headerCount) {
+                    throw new IOException("header says " + headerCount + " positions, blocks hold " + blockCount[0]);
+                }
+            }
+        }
+        PathDataFile dataFile = new PathDataFile(file);
+        String stats = pathStats(dataFile, result);
+        long tornBytes = fileSize(file) + fileSize(journalOf(file)) - dataFile.sizeOnDisk();
+        if (tornBytes > 0) {
+            return "OK, " + stats + ", " + tornBytes + " bytes of an interrupted save at the end of the journal are ignored";
+        }
+        return "OK, " + stats;
+    }
+
+    private static String visitStats(Path file, Result result) throws IOException {
+        VisitCountStore visits = new VisitDataFile(file).load();
+        int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+        for (int i = 0; i < visits.size(); i++) {
+            include(bounds, visits.getX(i), visits.getY(i), visits.getZ(i));
+            result.visits += visits.getCount(i);
+        }
+        result.visitedBlocks = visits.size();
+        result.bytes = fileSize(file);
+        return String.format("%d visited blocks, %d visits, %s, %.1f KB", result.visitedBlocks, result.visits, formatBounds(bounds), result.bytes / 1024.0);
+    }
+
+    /**
+     * Writes the positions of a JSON path file ([{"x":..,"y":..,"z":..}, ...])
+     * to a main file next to it and deletes it.
+     */
+    private static String convertJson(Path file, Result result) throws IOException {
+        String fileName = file.getFileName().toString();
+        Path binFile = file.resolveSibling(fileName.substring(0, fileName.length() - ".json".length()) + ".bin");
+        if (Files.exists(binFile)) {
+            throw new IOException(binFile.getFileName() + " already exists");
+        }
+        JsonElement element;
+        try (Reader reader = Files.newBufferedReader(file)) {
+            element = JsonParser.parseReader(reader);
+        }
+        if (!element.isJsonArray()) {
+            throw new IOException("not a JSON array");
+        }
+        result.points = new PathDataFile(binFile).replace(writer -> {
+            for (JsonElement e : element.getAsJsonArray()) {
+                if (e.isJsonObject()) {
+                    JsonObject obj = e.getAsJsonObject();
+                    writer.add(PositionStore.pack(obj.get("x").getAsInt(), obj.get("y").getAsInt(), obj.get("z").getAsInt()));
+                }
+            }
+        });
+        Files.delete(file);
+        result.bytes = fileSize(binFile);
+        return file + ": converted " + result.points + " points to " + binFile.getFileName();
+    }
+
+    private static void include(int[] bounds, int x, int y, int z) {
+        bounds[0] = Math.min(bounds[0], x);
+        bounds[1] = Math.min(bounds[1], y);
+        bounds[2] = Math.min(bounds[2], z);
+        bounds[3] = Math.max(bounds[3], x);
+        bounds[4] = Math.max(bounds[4], y);
+        bounds[5] = Math.max(bounds[5], z);
+    }
+
+    private static String formatBounds(int[] bounds) {
+        if (bounds[0] > bounds[3]) {
+            return "empty";
+        }
+        return String.format("x %d..%d y %d..%d z %d..%d", bounds[0], bounds[3], bounds[1], bounds[4], bounds[2], bounds[5]);
+    }
+
+    private static Path journalOf(Path file) {
+        String fileName = file.getFileName().toString();
+        return file.resolveSibling(fileName.substring(0, fileName.lastIndexOf('.')) + ".journal");
+    }
+
+    private static long fileSize(Path file) throws IOException {
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+}
@@ -0,0 +1,91 @@
+package com.pathtracker;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Segment splitting and spline generation over a whole path, the CPU work
+ * PathMeshCache does when it (re)builds the overlay at full detail.
+ *
+ * The spline points of each span are written to the same scratch array, so
+ * only the generation itself is measured, not the memory of a whole mesh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PathGeometryBenchmark {
+    @Param({"10000", "1000000", "10000000"})
+    public int points;
+
+    // PathStorageSessions.Modes, which can't be loaded without Minecraft.
+    @Param({"DEFAULT", "GROUPED"})
+    public String mode;
+
+    @Param({"16"})
+    public int subdivisions;
+
+    @Param({"5"})
+    public int groupSize;
+
+    private PositionStore path;
+    private int[] segmentStarts;
+    private int segmentCount;
+    private double[] basis;
+    private final double[] controlPoints = new double[12];
+    private float[] curve;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.path = SyntheticPaths.randomWalk(this.points, 42L);
+        this.segmentStarts = new int[this.points];
+        this.segmentCount = segments();
+        this.basis = PathGeometry.catmullRomBasis(this.subdivisions);
+        this.curve = new float[(this.subdivisions + 1) * 3];
+    }
+
+    /**
+     * Splits the path into segments of neighboring or joined positions.
+     */
+    @Benchmark
+    public int segments() {
+        int count = 0;
+        for (int i = 0; i < this.path.size(); i++) {
+            if (PathGeometry.startsSegment(this.path, i)) {
+                this.segmentStarts[count++] = i;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Computes the spline points of every span of the path.
+     */
+    @Benchmark
+    public float splines() {
+        int stepLength = this.mode.equals("GROUPED") ? this.groupSize : 1;
+        float checksum = 0.0f;
+        for (int segment = 0; segment < this.segmentCount; segment++) {
+            int start = this.segmentStarts[segment];
+            int end = segment + 1 < this.segmentCount ? this.segmentStarts[segment + 1] : this.path.size();
+            int steps = (end - start + stepLength - 1) / stepLength;
+            for (int step = 0; step + 1 < steps; step++) {
+                PathGeometry.stepCenter(this.path, start, end, stepLength, step == 0 ? step : step - 1, this.controlPoints, 0);
+                PathGeometry.stepCenter(this.path, start, end, stepLength, step, this.controlPoints, 3);
+                PathGeometry.stepCenter(this.path, start, end, stepLength, step + 1, this.controlPoints, 6);
+                PathGeometry.stepCenter(this.path, start, end, stepLength, step + 2 < steps ? step + 2 : step + 1, this.controlPoints, 9);
+                PathGeometry.catmullRom(this.basis, this.controlPoints, 0.0, 0.0, 0.0, this.curve, 0);
+                checksum += this.curve[this.curve.length - 1];
+            }
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,80 @@
+package com.pathtracker;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Center line generation of a whole path at full detail, on a fork-join pool
+ * of the given number of threads. One thread builds sequentially, without the
+ * pool, which is the baseline the others scale from.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PathSplineScalingBenchmark {
+    @Param({"100000", "1000000"})
+    public int points;
+
+    // PathStorageSessions.Modes, which can't be loaded without Minecraft.
+    @Param({"DEFAULT", "GROUPED"})
+    public String mode;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"16"})
+    public int subdivisions;
+
+    @Param({"5"})
+    public int groupSize;
+
+    private PositionStore path;
+    private int[] segmentStarts;
+    private int segmentCount;
+    private int[] spans;
+    private double[] basis;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.path = SyntheticPaths.randomWalk(this.points, 42L);
+        this.segmentStarts = new int[this.points];
+        for (int i = 0; i < this.points; i++) {
+            if (PathGeometry.startsSegment(this.path, i)) {
+                this.segmentStarts[this.segmentCount++] = i;
+            }
+        }
+        this.spans = new int[this.points];
+        for (int i = 0; i < this.points; i++) {
+            this.spans[i] = i;
+        }
+        this.basis = PathGeometry.catmullRomBasis(this.subdivisions);
+        this.pool = this.threads > 1 ? new ForkJoinPool(this.threads) : null;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (this.pool != null) {
+            this.pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int centerLines() {
+        int stepLength = this.mode.equals("GROUPED") ? this.groupSize : 1;
+        PathCenterLines lines = PathCenterLines.build(this.pool, this.path, this.segmentStarts, this.segmentCount,
+            this.points, this.spans, stepLength, 0, 0L, this.basis);
+        return lines.getPointCount();
+    }
+}
@@ -0,0 +1,97 @@
+package com.pathtracker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Load and save throughput of the path data files, as done by
+ * PathStorageSessions on the I/O thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PathStorageBenchmark {
+    // Share of the positions a save appends to the journal.
+    private static final int APPEND_DIVISOR = 100;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int points;
+
+    private PositionStore path;
+    private PositionStore savedPrefix;
+    private Path directory;
+    private Path loadFile;
+    private Path saveFile;
+    private Path appendFile;
+    private PathDataFile appendDataFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.path = SyntheticPaths.randomWalk(this.points, 42L);
+        this.savedPrefix = new PositionStore(this.points);
+        for (int i = 0; i < this.points - this.points / APPEND_DIVISOR; i++) {
+            this.savedPrefix.add(this.path.get(i));
+        }
+        this.directory = Files.createTempDirectory("pathtracker-jmh");
+        this.loadFile = this.directory.resolve("path_data_load.bin");
+        this.saveFile = this.directory.resolve("path_data_save.bin");
+        this.appendFile = this.directory.resolve("path_data_append.bin");
+        new PathDataFile(this.loadFile).save(this.path);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupAppend() throws IOException {
+        // Start every append from a file holding all but the last positions.
+        this.appendDataFile = new PathDataFile(this.appendFile);
+        this.appendDataFile.save(this.savedPrefix);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(this.directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Reads a whole main file.
+     */
+    @Benchmark
+    public PositionStore load() throws IOException {
+        return new PathDataFile(this.loadFile).load();
+    }
+
+    /**
+     * Writes a whole main file, as on the first save of a session.
+     */
+    @Benchmark
+    public void save() throws IOException {
+        new PathDataFile(this.saveFile).save(this.path);
+    }
+
+    /**
+     * Appends the last percent of the positions to the journal, as on a
+     * regular save.
+     */
+    @Benchmark
+    public void saveAppend() throws IOException {
+        this.appendDataFile.save(this.path);
+    }
+}
@@ -0,0 +1,38 @@
+package com.pathtracker;
+
+import java.util.Random;
+
+/**
+ * Generates reproducible paths for the benchmarks.
+ */
+final class SyntheticPaths {
+    // Average number of positions between two teleports, which start a new segment.
+    private static final int SEGMENT_LENGTH = 5000;
+
+    private SyntheticPaths() {
+    }
+
+    /**
+     * A random walk of single block steps, with a jump of a few hundred blocks
+     * every now and then, like a player walking around and using portals.
+     */
+    static PositionStore randomWalk(int points, long seed) {
+        Random random = new Random(seed);
+        PositionStore positions = new PositionStore(points);
+        int x = 0, y = 64, z = 0;
+        for (int i = 0; i < points; i++) {
+            if (random.nextInt(SEGMENT_LENGTH) == 0) {
+                x += random.nextInt(1000) - 500;
+                z += random.nextInt(1000) - 500;
+            } else {
+                x += random.nextInt(3) - 1;
+                z += random.nextInt(3) - 1;
+                if (random.nextInt(8) == 0) {
+                    y = Math.max(-64, Math.min(319, y + random.nextInt(3) - 1));
+                }
+            }
+            positions.add(x, y, z);
+        }
+        return positions;
+    }
+}
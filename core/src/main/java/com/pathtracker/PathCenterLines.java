@@ -0,0 +1,250 @@
+package com.pathtracker;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The smoothed center lines of a set of spans of the path, Minecraft-free.
+ * Points (x, y, z) are stored relative to the origin, with the index of the
+ * first point of each line. A line of a single point is drawn as a cube.
+ * Not changed anymore once built, so it can be extruded again later.
+ *
+ * Spans are independent of each other, so large sets are split across a
+ * fork-join pool. Each task fills its own part, and the parts are
+ * concatenated in order, so the result is the same as when built sequentially.
+ */
+public final class PathCenterLines {
+    // Steps (blocks, or groups in GROUPED mode) a span covers at each level of detail.
+    public static final int[] LOD_STRIDES = {1, 2, 8};
+    // Spans built by one task. Fewer spans are built sequentially, as splitting
+    // them costs more than it saves.
+    static final int PARALLEL_THRESHOLD = 2048;
+
+    final double originX, originY, originZ;
+    float[] points = new float[48];
+    int pointCount = 0;
+    int[] lineStarts = new int[8];
+    int lineCount = 0;
+
+    PathCenterLines(double originX, double originY, double originZ) {
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+    }
+
+    /**
+     * What the spans are built from. Only holds data that doesn't change
+     * anymore, so tasks can read it from any thread.
+     */
+    private static final class Source {
+        final PositionStore positions;
+        final int[] segmentStarts;
+        final int segmentCount;
+        final int sealedUpTo;
+        final int[] spans;
+        final int stepLength;
+        final int level;
+        final long regionKey;
+        final double[] basis;
+
+        Source(PositionStore positions, int[] segmentStarts, int segmentCount, int sealedUpTo, int[] spans,
+               int stepLength, int level, long regionKey, double[] basis) {
+            this.positions = positions;
+            this.segmentStarts = segmentStarts;
+            this.segmentCount = segmentCount;
+            this.sealedUpTo = sealedUpTo;
+            this.spans = spans;
+            this.stepLength = stepLength;
+            this.level = level;
+            this.regionKey = regionKey;
+            this.basis = basis;
+        }
+    }
+
+    /**
+     * Builds the parts [from, to) of the source, each PARALLEL_THRESHOLD spans,
+     * splitting them in halves until a single part is left.
+     */
+    private static final class PartTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Source source;
+        private final PathCenterLines[] parts;
+        private final int from, to;
+
+        PartTask(Source source, PathCenterLines[] parts, int from, int to) {
+            this.source = source;
+            this.parts = parts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                int first = this.from * PARALLEL_THRESHOLD;
+                this.parts[this.from] = buildSequential(this.source, first, Math.min(first + PARALLEL_THRESHOLD, this.source.spans.length));
+                return;
+            }
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new PartTask(this.source, this.parts, this.from, mid), new PartTask(this.source, this.parts, mid, this.to));
+        }
+    }
+
+    /**
+     * Builds the center lines of the spans starting at the given positions, at
+     * the given level of detail, for the region with the given key. Spans from
+     * sealedUpTo on aren't part of the region yet, coarse spans end before
+     * them. Uses the pool for large sets, or builds sequentially if it is null.
+     *
+     * segmentStarts holds the indices at which the segments of the path start,
+     * see PathMeshCache.
+     */
+    public static PathCenterLines build(ForkJoinPool pool, PositionStore positions, int[] segmentStarts, int segmentCount,
+                                        int sealedUpTo, int[] spans, int stepLength, int level, long regionKey, double[] basis) {
+        Source source = new Source(positions, segmentStarts, segmentCount, sealedUpTo, spans, stepLength, level, regionKey, basis);
+        if (pool == null || spans.length <= PARALLEL_THRESHOLD) {
+            return buildSequential(source, 0, spans.length);
+        }
+        PathCenterLines[] parts = new PathCenterLines[(spans.length + PARALLEL_THRESHOLD - 1) / PARALLEL_THRESHOLD];
+        pool.invoke(new PartTask(source, parts, 0, parts.length));
+        return concat(parts);
+    }
+
+    /**
+     * Concatenates parts with the same origin in order.
+     */
+    private static PathCenterLines concat(PathCenterLines[] parts) {
+        int pointCount = 0;
+        int lineCount = 0;
+        for (PathCenterLines part : parts) {
+            pointCount += part.pointCount;
+            lineCount += part.lineCount;
+        }
+        PathCenterLines lines = new PathCenterLines(parts[0].originX, parts[0].originY, parts[0].originZ);
+        lines.points = new float[Math.max(3, pointCount * 3)];
+        lines.lineStarts = new int[Math.max(1, lineCount)];
+        for (PathCenterLines part : parts) {
+            System.arraycopy(part.points, 0, lines.points, lines.pointCount * 3, part.pointCount * 3);
+            for (int line = 0; line < part.lineCount; line++) {
+                lines.lineStarts[lines.lineCount++] = lines.pointCount + part.lineStarts[line];
+            }
+            lines.pointCount += part.pointCount;
+        }
+        return lines;
+    }
+
+    private static PathCenterLines buildSequential(Source source, int from, int to) {
+        PositionStore positions = source.positions;
+        // All parts share the origin, so they can be concatenated as they are.
+        int origin = source.spans[0];
+        PathCenterLines lines = new PathCenterLines(positions.getX(origin), positions.getY(origin), positions.getZ(origin));
+        // Control points P0..P3 (x, y, z each) of the curve being built.
+        double[] controlPoints = new double[12];
+        for (int k = from; k < to; k++) {
+            lines.emitSpan(source, source.spans[k], controlPoints);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns the index into segmentStarts of the segment containing position i.
+     */
+    private static int segmentOf(Source source, int i) {
+        int low = 0;
+        int high = source.segmentCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (source.segmentStarts[mid] <= i) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Adds the center line of the span starting at position i.
+     */
+    private void emitSpan(Source source, int i, double[] controlPoints) {
+        PositionStore visited = source.positions;
+        int segment = segmentOf(source, i);
+        int start = source.segmentStarts[segment];
+        int end = segment + 1 < source.segmentCount ? source.segmentStarts[segment + 1] : visited.size();
+        // A segment of a single block is rendered as a cube.
+        if (end - start == 1) {
+            beginLine();
+            addPoint(visited.getX(i) + 0.5, visited.getY(i) + 0.5, visited.getZ(i) + 0.5);
+            return;
+        }
+        // Spans go from one step of the segment to the next: a block in DEFAULT
+        // mode, a group of blocks in GROUPED mode.
+        int stepLength = source.stepLength;
+        if ((i - start) % stepLength != 0) return;
+        int step = (i - start) / stepLength;
+        int steps = (end - start + stepLength - 1) / stepLength;
+        if (step + 1 >= steps) return;
+        int to = step + 1;
+        int stride = LOD_STRIDES[source.level];
+        if (stride > 1) {
+            // Coarse spans start at every stride-th step, and wherever the path
+            // enters the region, so they connect to regions drawn at other levels.
+            boolean entersRegion = step == 0 || PathSpatialIndex.regionKeyOf(visited, i - stepLength) != source.regionKey;
+            if (step % stride != 0 && !entersRegion) return;
+            // Extend to the next stride boundary, but end at the first step that
+            // isn't drawn by this region, where the next span picks up.
+            while (to % stride != 0 && to < steps - 1) {
+                int next = start + to * stepLength;
+                if (next >= source.sealedUpTo || PathSpatialIndex.regionKeyOf(visited, next) != source.regionKey) {
+                    break;
+                }
+                to++;
+            }
+        }
+        PathGeometry.stepCenter(visited, start, end, stepLength, step == 0 ? step : step - 1, controlPoints, 0);
+        PathGeometry.stepCenter(visited, start, end, stepLength, step, controlPoints, 3);
+        PathGeometry.stepCenter(visited, start, end, stepLength, to, controlPoints, 6);
+        PathGeometry.stepCenter(visited, start, end, stepLength, to + 1 < steps ? to + 1 : to, controlPoints, 9);
+        // The Catmull–Rom curve from P1 to P2.
+        beginLine();
+        int count = source.basis.length / 4 + 2;
+        ensurePoints(count);
+        PathGeometry.catmullRom(source.basis, controlPoints, this.originX, this.originY, this.originZ, this.points, this.pointCount * 3);
+        this.pointCount += count;
+    }
+
+    void beginLine() {
+        if (lineCount == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+        }
+        lineStarts[lineCount++] = pointCount;
+    }
+
+    void ensurePoints(int count) {
+        if ((pointCount + count) * 3 > points.length) {
+            points = Arrays.copyOf(points, Math.max(points.length * 2, (pointCount + count) * 3));
+        }
+    }
+
+    void addPoint(double x, double y, double z) {
+        ensurePoints(1);
+        points[pointCount * 3] = (float) (x - originX);
+        points[pointCount * 3 + 1] = (float) (y - originY);
+        points[pointCount * 3 + 2] = (float) (z - originZ);
+        pointCount++;
+    }
+
+    int lineEnd(int line) {
+        return line + 1 < lineCount ? lineStarts[line + 1] : pointCount;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+}
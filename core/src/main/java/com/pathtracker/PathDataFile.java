@@ -0,0 +1,520 @@
+package com.pathtracker;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * The on-disk path data of one dimension: a main file in the format of
+ * {@link PathFileFormat} plus an append-only journal of 12-byte positions
+ * (3 ints) holding the positions saved since the main file was last written.
+ *
+ * A save only appends the positions added since the previous save (or load) to
+ * the journal. Each journal record carries the index of its first position and
+ * a CRC, so a torn write at the end of the journal is detected and ignored, and
+ * records that were already folded into the main file are skipped. Records
+ * holding joined positions (see {@link PositionStore#isJoined}) have their own
+ * magic and a bit per position after the positions; records holding times
+ * (see {@link PositionStore#getTime}) another one, with the join bits and an
+ * int per position after the positions. Compaction
+ * copies main file and journal into a temporary file, atomically replaces the
+ * main file with it, and then deletes the journal.
+ *
+ * If the files can't be read, e.g. because a block fails its checksum, the
+ * positions before the damage are kept and the files are moved aside (see
+ * {@link #getDamagedCopy}), so the next save doesn't overwrite the rest.
+ */
+public class PathDataFile {
+    private static final int POSITION_BYTES = 12;
+    // "PTJ1"
+    private static final int RECORD_MAGIC = 0x50544A31;
+    // "PTJ2", a record followed by the join bits of its positions.
+    private static final int RECORD_MAGIC_JOINS = 0x50544A32;
+    // "PTJ3", a record followed by the join bits and the times of its positions.
+    private static final int RECORD_MAGIC_TIMES = 0x50544A33;
+    // magic + start index + count, followed by the positions and a CRC.
+    private static final int RECORD_HEADER_BYTES = 16;
+    private static final int RECORD_MAX_POSITIONS = 65536;
+    // Compact once the journal reaches this size and half the main file size.
+    private static final long COMPACT_MIN_JOURNAL_BYTES = 256 * 1024;
+    // How many positions are read between two progress callbacks.
+    private static final int PROGRESS_POSITIONS = 262144;
+    // Appended to the names of files that couldn't be read when they are moved aside.
+    private static final String DAMAGED_SUFFIX = ".corrupt";
+
+    private final Path dataFile;
+    private final Path journalFile;
+    // Number of positions on disk (main file + journal), or -1 if unknown.
+    private int persistedCount = -1;
+    // Length of the valid part of the journal, anything after it is a torn write.
+    private long journalLength = 0;
+    private boolean compactionScheduled = false;
+    // Where the main file (or journal) was moved to after it couldn't be read, null if it wasn't.
+    private Path damagedCopy = null;
+
+    public PathDataFile(Path dataFile) {
+        this.dataFile = dataFile;
+        String fileName = dataFile.getFileName().toString();
+        this.journalFile = dataFile.resolveSibling(fileName.substring(0, fileName.lastIndexOf('.')) + ".journal");
+    }
+
+    public Path getDataFile() {
+        return this.dataFile;
+    }
+
+    /**
+     * Returns the number of positions on disk, or -1 if not known yet.
+     */
+    public synchronized int getPersistedCount() {
+        return this.persistedCount;
+    }
+
+    /**
+     * Reads the main file and replays the journal on top of it.
+     */
+    public PositionStore load() throws IOException {
+        return load(positions -> { });
+    }
+
+    /**
+     * Returns where the files were moved after the last load found them
+     * damaged, or null if it didn't.
+     */
+    public synchronized Path getDamagedCopy() {
+        return this.damagedCopy;
+    }
+
+    /**
+     * Reads the main file and replays the journal on top of it, passing the
+     * store to the given callback every so often while it fills up. If the
+     * files are damaged, returns the positions before the damage and moves
+     * the files aside.
+     */
+    public synchronized PositionStore load(Consumer<PositionStore> progress) throws IOException {
+        PositionStore positions = new PositionStore();
+        this.damagedCopy = null;
+        try {
+            readMainFile(positions, progress);
+            this.journalLength = replayJournal((start, count, payload, hasJoins, hasTimes) -> {
+                int skip = positions.size() - start;
+                ByteBuffer buffer = ByteBuffer.wrap(payload);
+                buffer.position(skip * POSITION_BYTES);
+                for (int i = skip; i < count; i++) {
+                    positions.add(PositionStore.pack(buffer.getInt(), buffer.getInt(), buffer.getInt()), hasJoins && isJoined(payload, count, i),
+                        hasTimes ? timeOf(payload, count, i) : 0);
+                }
+            }, positions.size());
+            this.persistedCount = positions.size();
+        } catch (IOException | RuntimeException e) {
+            // Positions after the damage can't be told apart from garbage, keep the blocks read before it.
+            e.printStackTrace();
+            moveDamagedFiles();
+            if (this.damagedCopy != null) {
+                System.out.println("[PathTracker] " + this.dataFile.getFileName() + " is damaged, kept the first " + positions.size()
+                    + " positions, the files were moved to " + this.damagedCopy.getFileName());
+            }
+        }
+        progress.accept(positions);
+        return positions;
+    }
+
+    private void readMainFile(PositionStore positions, Consumer<PositionStore> progress) throws IOException {
+        if (Files.exists(this.dataFile)) {
+            try (FileChannel channel = FileChannel.open(this.dataFile, StandardOpenOption.READ)) {
+                // Size the store up front, the header tells us the number of positions.
+                positions.ensureCapacity((int) Math.min(PathFileFormat.readCount(channel), Integer.MAX_VALUE - 8));
+                int[] nextProgress = {PROGRESS_POSITIONS};
+                PathFileFormat.read(channel, (packed, joins, times, count) -> {
+                    if (joins == null && times == null) {
+                        positions.addAll(packed, 0, count);
+                    } else {
+                        for (int i = 0; i < count; i++) {
+                            positions.add(packed[i], joins != null && (joins[i >> 6] & (1L << i)) != 0, times != null ? times[i] : 0);
+                        }
+                    }
+                    if (positions.size() >= nextProgress[0]) {
+                        progress.accept(positions);
+                        nextProgress[0] += PROGRESS_POSITIONS;
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Moves the main file and the journal aside under a new name, leaving no
+     * positions on disk.
+     */
+    private void moveDamagedFiles() throws IOException {
+        String suffix = "." + System.currentTimeMillis() + DAMAGED_SUFFIX;
+        for (Path file : new Path[] {this.journalFile, this.dataFile}) {
+            if (Files.exists(file)) {
+                this.damagedCopy = file.resolveSibling(file.getFileName() + suffix);
+                Files.move(file, this.damagedCopy);
+            }
+        }
+        this.journalLength = 0;
+        this.persistedCount = 0;
+    }
+
+    /**
+     * Passes all positions on disk to the consumer, one block at a time: the
+     * blocks of the main file, then the journal records. Only one block is in
+     * memory at a time, however large the file is. Like {@link #load}, this
+     * finds the valid part of the journal, see {@link #sizeOnDisk}.
+     */
+    public synchronized void stream(PathFileFormat.BlockConsumer consumer) throws IOException {
+        int[] count = {0};
+        if (Files.exists(this.dataFile)) {
+            try (FileChannel channel = FileChannel.open(this.dataFile, StandardOpenOption.READ)) {
+                PathFileFormat.read(channel, (packed, joins, times, blockCount) -> {
+                    consumer.accept(packed, joins, times, blockCount);
+                    count[0] += blockCount;
+                });
+            }
+        }
+        long[] packed = new long[RECORD_MAX_POSITIONS];
+        long[] joins = new long[RECORD_MAX_POSITIONS / 64];
+        int[] times = new int[RECORD_MAX_POSITIONS];
+        this.journalLength = replayJournal((start, recordCount, payload, hasJoins, hasTimes) -> {
+            int skip = count[0] - start;
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            buffer.position(skip * POSITION_BYTES);
+            Arrays.fill(joins, 0L);
+            int blockCount = 0;
+            for (int i = skip; i < recordCount; i++, blockCount++) {
+                packed[blockCount] = PositionStore.pack(buffer.getInt(), buffer.getInt(), buffer.getInt());
+                if (hasJoins && isJoined(payload, recordCount, i)) {
+                    joins[blockCount >> 6] |= 1L << blockCount;
+                }
+                if (hasTimes) {
+                    times[blockCount] = timeOf(payload, recordCount, i);
+                }
+            }
+            consumer.accept(packed, hasJoins ? joins : null, hasTimes ? times : null, blockCount);
+            count[0] = start + recordCount;
+        }, count[0]);
+        this.persistedCount = count[0];
+    }
+
+    /**
+     * Writes the positions of a {@link #replace}.
+     */
+    public interface BlockSource {
+        void writeTo(PathFileFormat.Writer writer) throws IOException;
+    }
+
+    /**
+     * Replaces the positions on disk with those the source writes, which are
+     * streamed into a new main file. The journal is dropped. The source may
+     * stream this file's own positions, they are read before it is replaced.
+     * Returns the number of positions written.
+     */
+    public synchronized int replace(BlockSource source) throws IOException {
+        Path tempFile = this.dataFile.resolveSibling(this.dataFile.getFileName() + ".tmp");
+        long count;
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            PathFileFormat.Writer writer = new PathFileFormat.Writer(out);
+            source.writeTo(writer);
+            count = writer.getCount();
+            writer.finish();
+            out.force(true);
+        }
+        replaceDataFile(tempFile);
+        Files.deleteIfExists(this.journalFile);
+        this.journalLength = 0;
+        this.persistedCount = (int) count;
+        return (int) count;
+    }
+
+    /**
+     * Deletes the main file and the journal.
+     */
+    public synchronized void delete() throws IOException {
+        Files.deleteIfExists(this.dataFile);
+        Files.deleteIfExists(this.journalFile);
+        this.journalLength = 0;
+        this.persistedCount = 0;
+    }
+
+    /**
+     * Persists the given positions. If they extend what is on disk, only the new
+     * ones are appended to the journal; otherwise the main file is rewritten.
+     * Returns the number of bytes written.
+     */
+    public synchronized long save(PositionStore positions) throws IOException {
+        int size = positions.size();
+        if (this.persistedCount < 0 && (Files.exists(this.dataFile) || Files.exists(this.journalFile))) {
+            // Never read, e.g. the load failed: the positions don't extend what is on disk, so don't overwrite it.
+            moveDamagedFiles();
+            System.out.println("[PathTracker] " + this.dataFile.getFileName() + " was saved without being loaded, the old files were moved to "
+                + this.damagedCopy.getFileName());
+        }
+        if (this.persistedCount < 0 || size < this.persistedCount) {
+            rewrite(positions);
+            return Files.size(this.dataFile);
+        }
+        if (size == this.persistedCount) {
+            return 0;
+        }
+        long journalLengthBefore = this.journalLength;
+        try (FileChannel channel = FileChannel.open(this.journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            // Drop a torn record left behind by a crash, so the new records stay reachable.
+            channel.truncate(this.journalLength);
+            channel.position(this.journalLength);
+            for (int start = this.persistedCount; start < size; start += RECORD_MAX_POSITIONS) {
+                int count = Math.min(RECORD_MAX_POSITIONS, size - start);
+                boolean hasJoins = false;
+                for (int i = start; i < start + count && positions.hasJoins(); i++) {
+                    hasJoins |= positions.isJoined(i);
+                }
+                boolean hasTimes = false;
+                for (int i = start; i < start + count && positions.hasTimes() && !hasTimes; i++) {
+                    hasTimes = positions.getTime(i) != 0;
+                }
+                // Records with times always have the join bits.
+                int joinBytes = hasJoins || hasTimes ? (count + 7) / 8 : 0;
+                int timeBytes = hasTimes ? count * 4 : 0;
+                ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + count * POSITION_BYTES + joinBytes + timeBytes + 4);
+                record.putInt(hasTimes ? RECORD_MAGIC_TIMES : hasJoins ? RECORD_MAGIC_JOINS : RECORD_MAGIC);
+                record.putLong(start);
+                record.putInt(count);
+                for (int i = start; i < start + count; i++) {
+                    record.putInt(positions.getX(i));
+                    record.putInt(positions.getY(i));
+                    record.putInt(positions.getZ(i));
+                }
+                for (int i = 0; i < joinBytes * 8; i += 8) {
+                    int bits = 0;
+                    for (int j = i; j < i + 8 && j < count; j++) {
+                        bits |= positions.isJoined(start + j) ? 1 << (j - i) : 0;
+                    }
+                    record.put((byte) bits);
+                }
+                for (int i = start; i < start + timeBytes / 4; i++) {
+                    record.putInt(positions.getTime(i));
+                }
+                CRC32 crc = new CRC32();
+                crc.update(record.array(), 4, record.position() - 4);
+                record.putInt((int) crc.getValue());
+                record.flip();
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            }
+            this.journalLength = channel.position();
+        }
+        this.persistedCount = size;
+        return this.journalLength - journalLengthBefore;
+    }
+
+    /**
+     * Returns the bytes the positions take on disk: the main file and the
+     * valid part of the journal.
+     */
+    public synchronized long sizeOnDisk() throws IOException {
+        return (Files.exists(this.dataFile) ? Files.size(this.dataFile) : 0) + this.journalLength;
+    }
+
+    /**
+     * Returns true if the journal has grown large enough to be worth folding
+     * into the main file, and marks the compaction as scheduled.
+     */
+    public synchronized boolean scheduleCompaction() {
+        if (this.compactionScheduled || this.journalLength < COMPACT_MIN_JOURNAL_BYTES) {
+            return false;
+        }
+        try {
+            if (Files.exists(this.dataFile) && this.journalLength < Files.size(this.dataFile) / 2) {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        this.compactionScheduled = true;
+        return true;
+    }
+
+    /**
+     * Folds the journal into the main file. The blocks of the main file are
+     * copied as they are, only the journal positions are encoded.
+     */
+    public synchronized void compact() throws IOException {
+        this.compactionScheduled = false;
+        if (!Files.exists(this.journalFile)) {
+            return;
+        }
+        Path tempFile = this.dataFile.resolveSibling(this.dataFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            PathFileFormat.Writer writer = null;
+            if (Files.exists(this.dataFile)) {
+                try (FileChannel in = FileChannel.open(this.dataFile, StandardOpenOption.READ)) {
+                    if (PathFileFormat.isCurrentFormat(in)) {
+                        long mainCount = PathFileFormat.readCount(in);
+                        long bytes = in.size() - PathFileFormat.HEADER_BYTES;
+                        long copied = 0;
+                        out.position(PathFileFormat.HEADER_BYTES);
+                        while (copied < bytes) {
+                            copied += in.transferTo(PathFileFormat.HEADER_BYTES + copied, bytes - copied, out);
+                        }
+                        writer = new PathFileFormat.Writer(out, mainCount);
+                    } else {
+                        writer = new PathFileFormat.Writer(out);
+                        PathFileFormat.read(in, writer::addAll);
+                    }
+                }
+            }
+            if (writer == null) {
+                writer = new PathFileFormat.Writer(out);
+            }
+            PathFileFormat.Writer journalWriter = writer;
+            replayJournal((start, count, payload, hasJoins, hasTimes) -> {
+                int skip = (int) (journalWriter.getCount() - start);
+                ByteBuffer buffer = ByteBuffer.wrap(payload);
+                buffer.position(skip * POSITION_BYTES);
+                for (int i = skip; i < count; i++) {
+                    journalWriter.add(PositionStore.pack(buffer.getInt(), buffer.getInt(), buffer.getInt()), hasJoins && isJoined(payload, count, i),
+                        hasTimes ? timeOf(payload, count, i) : 0);
+                }
+            }, (int) writer.getCount());
+            writer.finish();
+            out.force(true);
+        }
+        replaceDataFile(tempFile);
+        Files.deleteIfExists(this.journalFile);
+        this.journalLength = 0;
+    }
+
+    /**
+     * Rewrites a main file of the legacy raw format in the current format. The
+     * journal stays valid, since the number of positions doesn't change.
+     * Returns false if the file didn't need to be converted.
+     */
+    public synchronized boolean upgradeFormat() throws IOException {
+        if (!Files.exists(this.dataFile)) {
+            return false;
+        }
+        Path tempFile = this.dataFile.resolveSibling(this.dataFile.getFileName() + ".tmp");
+        try (FileChannel in = FileChannel.open(this.dataFile, StandardOpenOption.READ)) {
+            if (PathFileFormat.isCurrentFormat(in)) {
+                return false;
+            }
+            try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                PathFileFormat.Writer writer = new PathFileFormat.Writer(out);
+                PathFileFormat.read(in, writer::addAll);
+                writer.finish();
+                out.force(true);
+            }
+        }
+        replaceDataFile(tempFile);
+        return true;
+    }
+
+    /**
+     * Writes all positions to a new main file and drops the journal.
+     */
+    private void rewrite(PositionStore positions) throws IOException {
+        Path tempFile = this.dataFile.resolveSibling(this.dataFile.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            PathFileFormat.Writer writer = new PathFileFormat.Writer(out);
+            for (int i = 0; i < positions.size(); i++) {
+                writer.add(positions.get(i), positions.isJoined(i), positions.getTime(i));
+            }
+            writer.finish();
+            out.force(true);
+        }
+        replaceDataFile(tempFile);
+        Files.deleteIfExists(this.journalFile);
+        this.journalLength = 0;
+        this.persistedCount = positions.size();
+    }
+
+    private void replaceDataFile(Path tempFile) throws IOException {
+        try {
+            Files.move(tempFile, this.dataFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, this.dataFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private interface RecordConsumer {
+        void accept(int start, int count, byte[] payload, boolean hasJoins, boolean hasTimes) throws IOException;
+    }
+
+    /**
+     * Returns the join bit of the i-th position of a record payload that has them.
+     */
+    private static boolean isJoined(byte[] payload, int count, int i) {
+        return (payload[count * POSITION_BYTES + (i >> 3)] & (1 << (i & 7))) != 0;
+    }
+
+    /**
+     * Returns the time of the i-th position of a record payload that has them.
+     */
+    private static int timeOf(byte[] payload, int count, int i) {
+        int offset = count * POSITION_BYTES + (count + 7) / 8 + i * 4;
+        return (payload[offset] & 0xFF) << 24 | (payload[offset + 1] & 0xFF) << 16 | (payload[offset + 2] & 0xFF) << 8 | (payload[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Reads the journal records in order and passes the ones that extend the
+     * data past the given count to the consumer. Stops at the first torn or
+     * corrupt record, or at a gap. Returns the length of the valid part.
+     */
+    private long replayJournal(RecordConsumer consumer, int count) throws IOException {
+        if (!Files.exists(this.journalFile)) {
+            return 0;
+        }
+        long validLength = 0;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.journalFile)))) {
+            while (true) {
+                int magic;
+                long start;
+                int recordCount;
+                byte[] payload;
+                boolean hasJoins;
+                boolean hasTimes;
+                int storedCrc;
+                try {
+                    magic = dis.readInt();
+                    start = dis.readLong();
+                    recordCount = dis.readInt();
+                    if ((magic != RECORD_MAGIC && magic != RECORD_MAGIC_JOINS && magic != RECORD_MAGIC_TIMES)
+                        || start < 0 || recordCount <= 0 || recordCount > RECORD_MAX_POSITIONS) {
+                        break;
+                    }
+                    hasTimes = magic == RECORD_MAGIC_TIMES;
+                    hasJoins = magic == RECORD_MAGIC_JOINS || hasTimes;
+                    payload = new byte[recordCount * POSITION_BYTES + (hasJoins ? (recordCount + 7) / 8 : 0) + (hasTimes ? recordCount * 4 : 0)];
+                    dis.readFully(payload);
+                    storedCrc = dis.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(ByteBuffer.allocate(12).putLong(start).putInt(recordCount).array());
+                crc.update(payload);
+                if ((int) crc.getValue() != storedCrc || start > count) {
+                    break;
+                }
+                if (start + recordCount > count) {
+                    consumer.accept((int) start, recordCount, payload, hasJoins, hasTimes);
+                    count = (int) start + recordCount;
+                }
+                validLength += RECORD_HEADER_BYTES + payload.length + 4;
+            }
+        }
+        return validLength;
+    }
+}
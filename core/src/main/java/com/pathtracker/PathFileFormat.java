@@ -0,0 +1,460 @@
+package com.pathtracker;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encoding of the main path data files.
+ *
+ * Version 2 files start with a header (magic, version, flags, position count)
+ * followed by blocks of up to {@link #BLOCK_POSITIONS} positions. Each block
+ * stores its first position and then the difference to the previous position,
+ * as zig-zag varints: consecutive positions are at most a couple of blocks
+ * apart, so most positions take 3 bytes instead of 12. A block is deflated on
+ * top of that if it saves a quarter of its size. Blocks can be decoded on
+ * their own, so files can be streamed and appended to block by block.
+ *
+ * Blocks holding positions joined to their previous one (see
+ * {@link PositionStore#isJoined}) set a flag in their codec byte, and append a
+ * bit per position after the varints. Blocks holding the times positions
+ * were recorded at (see {@link PositionStore#getTime}) set another flag and
+ * append them after that, as zig-zag varint differences to the previous time.
+ * Other blocks are unchanged, so files without joins or times are the same as
+ * before.
+ *
+ * Legacy files are raw 12-byte records (3 big-endian ints) without a header.
+ */
+public final class PathFileFormat {
+    // "PTD2"
+    public static final int MAGIC = 0x50544432;
+    public static final int VERSION = 2;
+    // magic + version + flags + reserved + position count
+    public static final int HEADER_BYTES = 16;
+    public static final int BLOCK_POSITIONS = 65536;
+    // position count + codec + stored length + raw length + CRC of the stored bytes
+    private static final int BLOCK_HEADER_BYTES = 17;
+    private static final byte CODEC_VARINT = 0;
+    private static final byte CODEC_DEFLATE = 1;
+    // Set in the codec byte of blocks that end with the join bits.
+    private static final byte BLOCK_FLAG_JOINS = 0x10;
+    // Set in the codec byte of blocks that end with the times.
+    private static final byte BLOCK_FLAG_TIMES = 0x20;
+    private static final int CODEC_MASK = 0x0F;
+    // Up to 5 varint bytes per coordinate.
+    private static final int MAX_POSITION_BYTES = 15;
+    private static final int MAX_BLOCK_BYTES = BLOCK_POSITIONS * (MAX_POSITION_BYTES + 5) + BLOCK_POSITIONS / 8;
+    private static final int LEGACY_POSITION_BYTES = 12;
+
+    private PathFileFormat() {
+    }
+
+    /**
+     * Receives decoded positions, one block at a time. joins holds a bit per
+     * position of the block, set if it is joined to the previous one, or is
+     * null if none is. times holds the time of each position, or is null if
+     * none has one.
+     */
+    public interface BlockConsumer {
+        void accept(long[] packed, long[] joins, int[] times, int count) throws IOException;
+    }
+
+    /**
+     * Returns true if the file starts with the version 2 header.
+     */
+    public static boolean isCurrentFormat(FileChannel channel) throws IOException {
+        if (channel.size() < HEADER_BYTES) {
+            return false;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) >= 0) {
+        }
+        return magic.getInt(0) == MAGIC;
+    }
+
+    /**
+     * Returns the number of positions recorded in the header of a version 2
+     * file, or the number of records of a legacy file.
+     */
+    public static long readCount(FileChannel channel) throws IOException {
+        if (!isCurrentFormat(channel)) {
+            return channel.size() / LEGACY_POSITION_BYTES;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+        }
+        if (header.get(4) > VERSION) {
+            throw new IOException("Unsupported path data version " + header.get(4));
+        }
+        return header.getLong(8);
+    }
+
+    /**
+     * Decodes all positions of the file, in either format, block by block.
+     */
+    public static void read(FileChannel channel, BlockConsumer consumer) throws IOException {
+        if (isCurrentFormat(channel)) {
+            readBlocks(channel, consumer);
+        } else {
+            readLegacy(channel, consumer);
+        }
+    }
+
+    private static void readBlocks(FileChannel channel, BlockConsumer consumer) throws IOException {
+        readCount(channel);
+        channel.position(HEADER_BYTES);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        long[] packed = new long[BLOCK_POSITIONS];
+        long[] joins = new long[BLOCK_POSITIONS / 64];
+        int[] times = new int[BLOCK_POSITIONS];
+        byte[] stored = new byte[MAX_BLOCK_BYTES];
+        byte[] raw = new byte[MAX_BLOCK_BYTES];
+        Inflater inflater = new Inflater();
+        try {
+            while (true) {
+                int count;
+                try {
+                    count = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte flags = in.readByte();
+                int codec = flags & CODEC_MASK;
+                int storedLength = in.readInt();
+                int rawLength = in.readInt();
+                int crc = in.readInt();
+                if (count <= 0 || count > BLOCK_POSITIONS || storedLength > stored.length || rawLength > raw.length) {
+                    throw new IOException("Corrupt path data block");
+                }
+                in.readFully(stored, 0, storedLength);
+                CRC32 checksum = new CRC32();
+                checksum.update(stored, 0, storedLength);
+                if ((int) checksum.getValue() != crc) {
+                    throw new IOException("Corrupt path data block (checksum mismatch)");
+                }
+                byte[] varints = stored;
+                if (codec == CODEC_DEFLATE) {
+                    inflater.reset();
+                    inflater.setInput(stored, 0, storedLength);
+                    try {
+                        if (inflater.inflate(raw, 0, rawLength) != rawLength) {
+                            throw new IOException("Corrupt path data block (short inflate)");
+                        }
+                    } catch (DataFormatException e) {
+                        throw new IOException("Corrupt path data block", e);
+                    }
+                    varints = raw;
+                }
+                int offset = decodeBlock(varints, packed, count);
+                boolean hasJoins = (flags & BLOCK_FLAG_JOINS) != 0;
+                if (hasJoins) {
+                    if (offset + (count + 7) / 8 > rawLength) {
+                        throw new IOException("Corrupt path data block (truncated joins)");
+                    }
+                    Arrays.fill(joins, 0L);
+                    for (int i = 0; i < count; i++) {
+                        if ((varints[offset + (i >> 3)] & (1 << (i & 7))) != 0) {
+                            joins[i >> 6] |= 1L << i;
+                        }
+                    }
+                    offset += (count + 7) / 8;
+                }
+                boolean hasTimes = (flags & BLOCK_FLAG_TIMES) != 0;
+                if (hasTimes) {
+                    decodeTimes(varints, offset, times, count);
+                }
+                consumer.accept(packed, hasJoins ? joins : null, hasTimes ? times : null, count);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads the 12-byte records of a legacy file in large blocks and decodes them
+     * in bulk. The file isn't memory-mapped, since a mapping keeps the file locked
+     * on Windows until it is garbage collected, which would keep it from being
+     * replaced.
+     */
+    private static void readLegacy(FileChannel channel, BlockConsumer consumer) throws IOException {
+        channel.position(0);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_POSITIONS * LEGACY_POSITION_BYTES);
+        int[] coordinates = new int[BLOCK_POSITIONS * 3];
+        long[] packed = new long[BLOCK_POSITIONS];
+        while (channel.read(buffer) >= 0 || buffer.position() > 0) {
+            buffer.flip();
+            int count = buffer.remaining() / LEGACY_POSITION_BYTES;
+            if (count == 0) {
+                // Trailing partial record at the end of the file.
+                break;
+            }
+            buffer.asIntBuffer().get(coordinates, 0, count * 3);
+            buffer.position(count * LEGACY_POSITION_BYTES);
+            buffer.compact();
+            for (int i = 0; i < count; i++) {
+                packed[i] = PositionStore.pack(coordinates[i * 3], coordinates[i * 3 + 1], coordinates[i * 3 + 2]);
+            }
+            consumer.accept(packed, null, null, count);
+        }
+    }
+
+    /**
+     * Decodes the varints of a block and returns the offset after them.
+     */
+    private static int decodeBlock(byte[] data, long[] packed, int count) throws IOException {
+        int offset = 0;
+        int x = 0, y = 0, z = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                // The first position of a block is stored as is, the others as deltas.
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[offset++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                x += (value >>> 1) ^ -(value & 1);
+                value = 0;
+                shift = 0;
+                do {
+                    b = data[offset++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                y += (value >>> 1) ^ -(value & 1);
+                value = 0;
+                shift = 0;
+                do {
+                    b = data[offset++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                z += (value >>> 1) ^ -(value & 1);
+                packed[i] = PositionStore.pack(x, y, z);
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt path data block (truncated varint)");
+        }
+        return offset;
+    }
+
+    /**
+     * Decodes the times of a block, stored as differences to the previous one.
+     */
+    private static void decodeTimes(byte[] data, int offset, int[] times, int count) throws IOException {
+        int time = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[offset++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                time += (value >>> 1) ^ -(value & 1);
+                times[i] = time;
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt path data block (truncated times)");
+        }
+    }
+
+    /**
+     * Writes a version 2 file, buffering positions into blocks. The header is
+     * written by {@link #finish()}; until then the file is incomplete, so write
+     * to a temporary file and move it in place afterwards.
+     */
+    public static class Writer {
+        private final FileChannel channel;
+        private final long[] block = new long[BLOCK_POSITIONS];
+        private final long[] blockJoins = new long[BLOCK_POSITIONS / 64];
+        private boolean blockHasJoins = false;
+        private final int[] blockTimes = new int[BLOCK_POSITIONS];
+        private boolean blockHasTimes = false;
+        private final byte[] raw = new byte[MAX_BLOCK_BYTES];
+        private final byte[] deflated = new byte[MAX_BLOCK_BYTES];
+        private final ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private int blockSize = 0;
+        private long count;
+
+        /**
+         * Starts a new, empty file.
+         */
+        public Writer(FileChannel channel) throws IOException {
+            this(channel, 0);
+            channel.truncate(0);
+            channel.position(HEADER_BYTES);
+        }
+
+        /**
+         * Continues a file that already holds the given number of positions, with
+         * the channel positioned after its last block.
+         */
+        public Writer(FileChannel channel, long existingCount) {
+            this.channel = channel;
+            this.count = existingCount;
+        }
+
+        public void add(long packed) throws IOException {
+            add(packed, false);
+        }
+
+        /**
+         * Adds a position, joined to the previous one if joined is true.
+         */
+        public void add(long packed, boolean joined) throws IOException {
+            add(packed, joined, 0);
+        }
+
+        /**
+         * Adds a position recorded at the given time (0 if unknown), joined
+         * to the previous one if joined is true.
+         */
+        public void add(long packed, boolean joined, int time) throws IOException {
+            this.blockTimes[this.blockSize] = time;
+            this.blockHasTimes |= time != 0;
+            if (joined) {
+                this.blockJoins[this.blockSize >> 6] |= 1L << this.blockSize;
+                this.blockHasJoins = true;
+            }
+            this.block[this.blockSize++] = packed;
+            if (this.blockSize == BLOCK_POSITIONS) {
+                flushBlock();
+            }
+        }
+
+        /**
+         * Adds a block as passed to a {@link BlockConsumer}.
+         */
+        public void addAll(long[] packed, long[] joins, int[] times, int count) throws IOException {
+            for (int i = 0; i < count; i++) {
+                add(packed[i], joins != null && (joins[i >> 6] & (1L << i)) != 0, times != null ? times[i] : 0);
+            }
+        }
+
+        public long getCount() {
+            return this.count + this.blockSize;
+        }
+
+        /**
+         * Writes the last block and the header. Does not close the channel.
+         */
+        public void finish() throws IOException {
+            flushBlock();
+            this.deflater.end();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC);
+            header.put((byte) VERSION);
+            // Flags and reserved bytes, for optional sections of later versions.
+            header.put((byte) 0);
+            header.putShort((short) 0);
+            header.putLong(this.count);
+            header.flip();
+            long position = 0;
+            while (header.hasRemaining()) {
+                position += this.channel.write(header, position);
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (this.blockSize == 0) {
+                return;
+            }
+            int rawLength = encodeBlock(this.block, this.blockSize, this.raw);
+            byte flags = 0;
+            if (this.blockHasJoins) {
+                flags = BLOCK_FLAG_JOINS;
+                Arrays.fill(this.raw, rawLength, rawLength + (this.blockSize + 7) / 8, (byte) 0);
+                for (int i = 0; i < this.blockSize; i++) {
+                    if ((this.blockJoins[i >> 6] & (1L << i)) != 0) {
+                        this.raw[rawLength + (i >> 3)] |= (byte) (1 << (i & 7));
+                    }
+                }
+                rawLength += (this.blockSize + 7) / 8;
+                Arrays.fill(this.blockJoins, 0L);
+                this.blockHasJoins = false;
+            }
+            if (this.blockHasTimes) {
+                flags |= BLOCK_FLAG_TIMES;
+                int previous = 0;
+                for (int i = 0; i < this.blockSize; i++) {
+                    rawLength = writeZigZag(this.raw, rawLength, this.blockTimes[i] - previous);
+                    previous = this.blockTimes[i];
+                }
+                this.blockHasTimes = false;
+            }
+            byte codec = CODEC_VARINT;
+            byte[] stored = this.raw;
+            int storedLength = rawLength;
+            this.deflater.reset();
+            this.deflater.setInput(this.raw, 0, rawLength);
+            this.deflater.finish();
+            int deflatedLength = this.deflater.deflate(this.deflated);
+            // Only keep the deflated bytes if they are complete and save a quarter of the size.
+            if (this.deflater.finished() && deflatedLength < rawLength - rawLength / 4) {
+                codec = CODEC_DEFLATE;
+                stored = this.deflated;
+                storedLength = deflatedLength;
+            }
+            CRC32 checksum = new CRC32();
+            checksum.update(stored, 0, storedLength);
+            this.blockHeader.clear();
+            this.blockHeader.putInt(this.blockSize);
+            this.blockHeader.put((byte) (codec | flags));
+            this.blockHeader.putInt(storedLength);
+            this.blockHeader.putInt(rawLength);
+            this.blockHeader.putInt((int) checksum.getValue());
+            this.blockHeader.flip();
+            while (this.blockHeader.hasRemaining()) {
+                this.channel.write(this.blockHeader);
+            }
+            ByteBuffer data = ByteBuffer.wrap(stored, 0, storedLength);
+            while (data.hasRemaining()) {
+                this.channel.write(data);
+            }
+            this.count += this.blockSize;
+            this.blockSize = 0;
+        }
+    }
+
+    private static int encodeBlock(long[] packed, int count, byte[] out) {
+        int offset = 0;
+        int previousX = 0, previousY = 0, previousZ = 0;
+        for (int i = 0; i < count; i++) {
+            int x = PositionStore.unpackX(packed[i]);
+            int y = PositionStore.unpackY(packed[i]);
+            int z = PositionStore.unpackZ(packed[i]);
+            offset = writeZigZag(out, offset, x - previousX);
+            offset = writeZigZag(out, offset, y - previousY);
+            offset = writeZigZag(out, offset, z - previousZ);
+            previousX = x;
+            previousY = y;
+            previousZ = z;
+        }
+        return offset;
+    }
+
+    private static int writeZigZag(byte[] out, int offset, int value) {
+        int zigZag = (value << 1) ^ (value >> 31);
+        while ((zigZag & ~0x7F) != 0) {
+            out[offset++] = (byte) ((zigZag & 0x7F) | 0x80);
+            zigZag >>>= 7;
+        }
+        out[offset++] = (byte) zigZag;
+        return offset;
+    }
+}
@@ -0,0 +1,93 @@
+package com.pathtracker;
+
+/**
+ * Minecraft-free building blocks of the path geometry: splitting the path into
+ * segments, step centers and Catmull–Rom curve points.
+ */
+public final class PathGeometry {
+    private PathGeometry() {
+    }
+
+    /**
+     * Returns true if the two packed block positions are adjacent in every axis.
+     */
+    public static boolean areNeighbors(long a, long b) {
+        // 2 Steps in any direction (including diagonals)
+        return Math.abs(PositionStore.unpackX(a) - PositionStore.unpackX(b)) <= 2 &&
+               Math.abs(PositionStore.unpackY(a) - PositionStore.unpackY(b)) <= 2 &&
+               Math.abs(PositionStore.unpackZ(a) - PositionStore.unpackZ(b)) <= 2;
+    }
+
+    /**
+     * Returns true if a new segment of the path starts at the index: the
+     * position is neither a neighbor of the previous one nor joined to it.
+     */
+    public static boolean startsSegment(PositionStore positions, int index) {
+        return index == 0 || (!positions.isJoined(index) && !areNeighbors(positions.get(index - 1), positions.get(index)));
+    }
+
+    /**
+     * Writes the center of the given step of the segment [start, end) into the
+     * array at the given offset. A step is stepLength consecutive blocks (one
+     * block in DEFAULT mode, a group in GROUPED mode); its center is the average
+     * of the block centers.
+     */
+    public static void stepCenter(PositionStore positions, int start, int end, int stepLength, int step, double[] out, int offset) {
+        int from = start + step * stepLength;
+        int to = Math.min(from + stepLength, end);
+        long sumX = 0, sumY = 0, sumZ = 0;
+        for (int j = from; j < to; j++) {
+            sumX += positions.getX(j);
+            sumY += positions.getY(j);
+            sumZ += positions.getZ(j);
+        }
+        double count = to - from;
+        out[offset] = sumX / count + 0.5;
+        out[offset + 1] = sumY / count + 0.5;
+        out[offset + 2] = sumZ / count + 0.5;
+    }
+
+    /**
+     * Precomputes the Catmull–Rom weights of the four control points for each
+     * inner subdivision point t = j / subdivisions.
+     *
+     * The formula is:
+     * 0.5 * [2P1 + (P2 – P0)t + (2P0 – 5P1 + 4P2 – P3)t² + (–P0 + 3P1 – 3P2 + P3)t³]
+     */
+    public static double[] catmullRomBasis(int subdivisions) {
+        double[] basis = new double[Math.max(0, subdivisions - 1) * 4];
+        for (int j = 1; j < subdivisions; j++) {
+            double t = j / (double) subdivisions;
+            double t2 = t * t;
+            double t3 = t2 * t;
+            int k = (j - 1) * 4;
+            basis[k] = 0.5 * (-t + 2.0 * t2 - t3);
+            basis[k + 1] = 0.5 * (2.0 - 5.0 * t2 + 3.0 * t3);
+            basis[k + 2] = 0.5 * (t + 4.0 * t2 - 3.0 * t3);
+            basis[k + 3] = 0.5 * (-t2 + t3);
+        }
+        return basis;
+    }
+
+    /**
+     * Writes the points of the Catmull–Rom curve from P1 to P2 (both included),
+     * relative to the given origin, into out at the given offset. The control
+     * points P0..P3 are passed as 12 values (x, y, z each). Needs room for
+     * (basis.length / 4 + 2) * 3 values and returns the offset after the last one.
+     */
+    public static int catmullRom(double[] basis, double[] p, double originX, double originY, double originZ, float[] out, int offset) {
+        out[offset++] = (float) (p[3] - originX);
+        out[offset++] = (float) (p[4] - originY);
+        out[offset++] = (float) (p[5] - originZ);
+        for (int k = 0; k < basis.length; k += 4) {
+            double b0 = basis[k], b1 = basis[k + 1], b2 = basis[k + 2], b3 = basis[k + 3];
+            out[offset++] = (float) (b0 * p[0] + b1 * p[3] + b2 * p[6] + b3 * p[9] - originX);
+            out[offset++] = (float) (b0 * p[1] + b1 * p[4] + b2 * p[7] + b3 * p[10] - originY);
+            out[offset++] = (float) (b0 * p[2] + b1 * p[5] + b2 * p[8] + b3 * p[11] - originZ);
+        }
+        out[offset++] = (float) (p[6] - originX);
+        out[offset++] = (float) (p[7] - originY);
+        out[offset++] = (float) (p[8] - originZ);
+        return offset;
+    }
+}
@@ -0,0 +1,112 @@
+package com.pathtracker;
+
+/**
+ * Simplifies the tracked path while it is recorded. Of a run of positions that
+ * all lie within the tolerance of the straight line from the run's first to
+ * its last position, only those two are stored, so a straight tunnel takes a
+ * couple of points instead of one per block.
+ *
+ * Stored positions that are no neighbors of the previous one are marked as
+ * joined (see {@link PositionStore#isJoined}), so they are still drawn as one
+ * segment. A run is cut after {@link #MAX_RUN} positions, which keeps the
+ * stored path from falling far behind the player; the last run is stored by
+ * {@link #flush}. Jumps, like teleports, end the run and start a new segment.
+ * Stored positions keep the time they were tracked at.
+ */
+public class PathSimplifier {
+    // Positions a run holds at most before its end is stored anyway.
+    public static final int MAX_RUN = 32;
+
+    // Last stored position, the start of the current run.
+    private long anchor;
+    private boolean hasAnchor = false;
+    // Positions of the run after the anchor, the last one is the candidate end.
+    private final long[] run = new long[MAX_RUN];
+    private final int[] runTimes = new int[MAX_RUN];
+    private int runLength = 0;
+
+    /**
+     * Adds a tracked position, appending the positions that became final to
+     * the store. tolerance is the largest distance in blocks a left out
+     * position may have from the stored line.
+     */
+    public void add(long packed, double tolerance, PositionStore out) {
+        add(packed, 0, tolerance, out);
+    }
+
+    /**
+     * Adds a position tracked at the given time (see
+     * {@link PositionStore#timeStamp}), like {@link #add(long, double, PositionStore)}.
+     */
+    public void add(long packed, int time, double tolerance, PositionStore out) {
+        if (!this.hasAnchor) {
+            out.add(packed, false, time);
+            this.anchor = packed;
+            this.hasAnchor = true;
+            return;
+        }
+        long last = this.runLength > 0 ? this.run[this.runLength - 1] : this.anchor;
+        if (!PathGeometry.areNeighbors(last, packed)) {
+            // A jump: store where the path ended and start a new segment.
+            flush(out);
+            out.add(packed, false, time);
+            this.anchor = packed;
+            return;
+        }
+        if (this.runLength == MAX_RUN || !fitsLine(packed, tolerance)) {
+            flush(out);
+        }
+        this.runTimes[this.runLength] = time;
+        this.run[this.runLength++] = packed;
+    }
+
+    /**
+     * Stores the end of the current run, e.g. before the path is saved.
+     */
+    public void flush(PositionStore out) {
+        if (this.runLength == 0) {
+            return;
+        }
+        long end = this.run[this.runLength - 1];
+        out.add(end, !PathGeometry.areNeighbors(this.anchor, end), this.runTimes[this.runLength - 1]);
+        this.anchor = end;
+        this.runLength = 0;
+    }
+
+    /**
+     * Forgets the current run without storing it, when the store is replaced.
+     */
+    public void reset() {
+        this.hasAnchor = false;
+        this.runLength = 0;
+    }
+
+    /**
+     * Returns true if every position of the run is within the tolerance of
+     * the line from the anchor to the given end.
+     */
+    private boolean fitsLine(long end, double tolerance) {
+        double ax = PositionStore.unpackX(this.anchor);
+        double ay = PositionStore.unpackY(this.anchor);
+        double az = PositionStore.unpackZ(this.anchor);
+        double dx = PositionStore.unpackX(end) - ax;
+        double dy = PositionStore.unpackY(end) - ay;
+        double dz = PositionStore.unpackZ(end) - az;
+        double lengthSquared = dx * dx + dy * dy + dz * dz;
+        double toleranceSquared = tolerance * tolerance;
+        for (int i = 0; i < this.runLength; i++) {
+            double px = PositionStore.unpackX(this.run[i]) - ax;
+            double py = PositionStore.unpackY(this.run[i]) - ay;
+            double pz = PositionStore.unpackZ(this.run[i]) - az;
+            // Distance to the closest point of the line segment.
+            double t = lengthSquared > 0 ? Math.max(0.0, Math.min(1.0, (px * dx + py * dy + pz * dz) / lengthSquared)) : 0.0;
+            double ex = px - t * dx;
+            double ey = py - t * dy;
+            double ez = pz - t * dz;
+            if (ex * ex + ey * ey + ez * ez > toleranceSquared) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+package com.pathtracker;
+
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+/**
+ * Buckets the visited positions of one dimension by region (a column of 4x4
+ * chunks), so the renderer only has to look at the part of the path around
+ * the camera instead of the whole history.
+ *
+ * Buckets hold indices into the position store, in ascending order. The index is
+ * append-only: it catches up with positions added since the last update.
+ */
+public class PathSpatialIndex {
+    // Regions are 64x64 block columns.
+    public static final int REGION_SHIFT = 6;
+    public static final int REGION_SIZE = 1 << REGION_SHIFT;
+
+    public static class Bucket {
+        private int[] indices = new int[32];
+        private int size = 0;
+        // Height range of the positions in the bucket.
+        private int minY = Integer.MAX_VALUE;
+        private int maxY = Integer.MIN_VALUE;
+
+        void add(int index, int y) {
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+            if (size == indices.length) {
+                int[] grown = new int[indices.length * 2];
+                System.arraycopy(indices, 0, grown, 0, size);
+                indices = grown;
+            }
+            indices[size++] = index;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int get(int i) {
+            return indices[i];
+        }
+
+        /**
+         * Returns a copy of the first count indices, which stays valid while the
+         * bucket grows.
+         */
+        public int[] copyIndices(int count) {
+            return Arrays.copyOf(indices, count);
+        }
+
+        public int getMinY() {
+            return minY;
+        }
+
+        public int getMaxY() {
+            return maxY;
+        }
+
+        /**
+         * Returns the number of indices in this bucket that are below the given index.
+         */
+        public int countBelow(int index) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (indices[mid] < index) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private final Long2ObjectOpenHashMap<Bucket> buckets = new Long2ObjectOpenHashMap<>();
+    private PositionStore source = null;
+    private int indexedSize = 0;
+
+    /**
+     * Adds the positions appended to the store since the last call. If a
+     * different store is passed (e.g. after a load), the index starts over.
+     */
+    public void update(PositionStore positions) {
+        if (positions.lineage() != this.source || positions.size() < this.indexedSize) {
+            this.buckets.clear();
+            this.source = positions.lineage();
+            this.indexedSize = 0;
+        }
+        int size = positions.size();
+        for (int i = this.indexedSize; i < size; i++) {
+            long key = regionKeyOf(positions, i);
+            Bucket bucket = this.buckets.get(key);
+            if (bucket == null) {
+                bucket = new Bucket();
+                this.buckets.put(key, bucket);
+            }
+            bucket.add(i, positions.getY(i));
+        }
+        this.indexedSize = size;
+    }
+
+    /**
+     * Returns the estimated heap bytes of the buckets and the map holding them.
+     */
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (Bucket bucket : this.buckets.values()) {
+            // The array, the bucket and a map slot.
+            bytes += 16 + bucket.indices.length * 4L + 32 + 16;
+        }
+        return bytes;
+    }
+
+    public Bucket getBucket(long key) {
+        return this.buckets.get(key);
+    }
+
+    public int getRegionCount() {
+        return this.buckets.size();
+    }
+
+    public Iterable<Long2ObjectMap.Entry<Bucket>> regions() {
+        return Long2ObjectMaps.fastIterable(this.buckets);
+    }
+
+    public static long regionKey(int regionX, int regionZ) {
+        return ((long) regionX << 32) | (regionZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the key of the region the position at the given index lies in.
+     */
+    public static long regionKeyOf(PositionStore positions, int index) {
+        return regionKey(positions.getX(index) >> REGION_SHIFT, positions.getZ(index) >> REGION_SHIFT);
+    }
+
+    public static int regionX(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int regionZ(long key) {
+        return (int) key;
+    }
+}
@@ -0,0 +1,59 @@
+package com.pathtracker;
+
+/**
+ * Keeps the positions of a path recorded since a given time, e.g. within the
+ * last hour, as a store of their own that can be drawn and indexed like the
+ * whole path.
+ *
+ * The window's store is only appended to while the path grows. Positions
+ * falling out of the window as time passes are dropped once they make up an
+ * eighth of it, by building the store again; until then they are kept a bit
+ * longer than the window. Positions without a time (see
+ * {@link PositionStore#getTime}) recorded before the first one with are never
+ * in the window.
+ */
+public class PathTimeWindow {
+    private final PathSpatialIndex index = new PathSpatialIndex();
+    private PositionStore source = null;
+    private PositionStore windowed = null;
+    // Index of the path's first windowed position, and after its last one.
+    private int start = 0;
+    private int end = 0;
+
+    /**
+     * Catches up with the path and the given start of the window, and
+     * returns the positions in the window. The returned store stays the same
+     * while it is only appended to, like a live store.
+     */
+    public PositionStore update(PositionStore positions, int since) {
+        int from = positions.indexAtTime(since);
+        if (this.windowed == null || positions.lineage() != this.source || positions.size() < this.end || from < this.start
+                || from - this.start >= Math.max(1, (this.end - this.start) / 8)) {
+            this.windowed = new PositionStore(Math.max(positions.size() - from, 16));
+            // The first position has nothing to be joined to.
+            this.windowed.addRange(positions, from, positions.size());
+            this.source = positions.lineage();
+            this.start = from;
+        } else if (positions.size() > this.end) {
+            this.windowed.add(positions.get(this.end), positions.isJoined(this.end), positions.getTime(this.end));
+            this.windowed.addRange(positions, this.end + 1, positions.size());
+        }
+        this.end = positions.size();
+        this.index.update(this.windowed);
+        return this.windowed;
+    }
+
+    /**
+     * Returns the spatial index of the positions in the window.
+     */
+    public PathSpatialIndex getIndex() {
+        return this.index;
+    }
+
+    /**
+     * Returns the estimated heap bytes of the windowed positions and their index.
+     */
+    public long estimatedBytes() {
+        return (this.windowed != null ? this.windowed.estimatedBytes() : 0) + this.index.estimatedBytes();
+    }
+}
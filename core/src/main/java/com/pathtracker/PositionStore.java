@@ -0,0 +1,347 @@
+package com.pathtracker;
+
+/**
+ * Growable, append-only list of block positions packed into a long[].
+ *
+ * Each position takes 8 bytes instead of a BlockPos object plus a list slot.
+ * The packing uses the same layout as BlockPos.asLong() (26 bits x, 26 bits z,
+ * 12 bits y), so values can be exchanged with Minecraft code directly.
+ *
+ * A position can be marked as joined to the previous one: the path continues
+ * between them even though they aren't neighbors, because the positions in
+ * between were left out by {@link PathSimplifier}. Marks are kept in a bit
+ * set that is only allocated once the first one is added.
+ *
+ * Positions can also carry the time they were recorded at, in seconds since
+ * {@link #TIME_EPOCH_SECONDS}, in a column that is only allocated once the
+ * first time is added; 0 means unknown (positions of older versions). A
+ * sparse index holding the latest time up to every {@link #TIME_INDEX_STRIDE}
+ * positions lets {@link #indexAtTime} binary search the positions recorded
+ * since a given time.
+ */
+public class PositionStore {
+    private static final int SIZE_BITS_XZ = 26;
+    private static final int SIZE_BITS_Y = 12;
+    private static final long MASK_XZ = (1L << SIZE_BITS_XZ) - 1L;
+    private static final long MASK_Y = (1L << SIZE_BITS_Y) - 1L;
+    private static final int BIT_SHIFT_Z = SIZE_BITS_Y;
+    private static final int BIT_SHIFT_X = SIZE_BITS_Y + SIZE_BITS_XZ;
+    // 2020-01-01 UTC, so times fit an int for decades.
+    public static final long TIME_EPOCH_SECONDS = 1577836800L;
+    private static final int TIME_INDEX_SHIFT = 8;
+    public static final int TIME_INDEX_STRIDE = 1 << TIME_INDEX_SHIFT;
+
+    private long[] positions;
+    private int size = 0;
+    // One bit per position, set if it is joined to the previous one. Null if none is.
+    private long[] joins = null;
+    // Time of each position, null if none has one.
+    private int[] times = null;
+    // Latest time of the positions up to the end of each stride, null if none has one.
+    private int[] timeIndex = null;
+    // Index after the last position with a time, the strides up to it are indexed.
+    private int timedSize = 0;
+    private final boolean readOnly;
+    // The store snapshots were taken from, or this store itself.
+    private final PositionStore lineage;
+
+    public PositionStore() {
+        this(64);
+    }
+
+    public PositionStore(int initialCapacity) {
+        this.positions = new long[Math.max(initialCapacity, 16)];
+        this.readOnly = false;
+        this.lineage = this;
+    }
+
+    private PositionStore(long[] positions, long[] joins, int[] times, int[] timeIndex, int timedSize, int size, PositionStore lineage) {
+        this.positions = positions;
+        this.joins = joins;
+        this.times = times;
+        this.timeIndex = timeIndex;
+        this.timedSize = timedSize;
+        this.size = size;
+        this.readOnly = true;
+        this.lineage = lineage;
+    }
+
+    /**
+     * Returns a read-only view of the positions added so far, e.g. to hand to
+     * another thread. Positions are never modified once added, so the view can
+     * share the backing array and stays valid while this store keeps growing.
+     */
+    public PositionStore snapshot() {
+        return new PositionStore(this.positions, this.joins, this.times, this.timeIndex, this.timedSize, this.size, this.lineage);
+    }
+
+    /**
+     * Returns the live store this one is a snapshot of, or this store itself.
+     * Stores with the same lineage share their common prefix, so caches built
+     * from one of them can treat a later one as an append.
+     */
+    public PositionStore lineage() {
+        return this.lineage;
+    }
+
+    /**
+     * Appends packed positions from the given array.
+     */
+    public void addAll(long[] packed, int offset, int length) {
+        if (this.readOnly) {
+            throw new UnsupportedOperationException("Snapshots are read-only");
+        }
+        ensureCapacity(this.size + length);
+        System.arraycopy(packed, offset, this.positions, this.size, length);
+        this.size += length;
+    }
+
+    /**
+     * Appends all positions of the other store, with their joins and times.
+     */
+    public void addAll(PositionStore other) {
+        addRange(other, 0, other.size);
+    }
+
+    /**
+     * Appends the positions [from, to) of the other store, with their times,
+     * and their joins except for the first one.
+     */
+    public void addRange(PositionStore other, int from, int to) {
+        int offset = this.size - from;
+        addAll(other.positions, from, to - from);
+        if (other.joins != null) {
+            for (int i = from + 1; i < to; i++) {
+                if (other.isJoined(i)) {
+                    setJoined(offset + i);
+                }
+            }
+        }
+        if (other.times != null) {
+            for (int i = from; i < to; i++) {
+                int time = other.getTime(i);
+                if (time != 0) {
+                    setTime(offset + i, time);
+                }
+            }
+        }
+    }
+
+    public void add(int x, int y, int z) {
+        add(pack(x, y, z));
+    }
+
+    public void add(long packed) {
+        if (this.readOnly) {
+            throw new UnsupportedOperationException("Snapshots are read-only");
+        }
+        if (this.size == this.positions.length) {
+            grow(this.size + 1);
+        }
+        this.positions[this.size++] = packed;
+    }
+
+    /**
+     * Appends a packed position, joined to the previous one if joined is true.
+     */
+    public void add(long packed, boolean joined) {
+        add(packed);
+        if (joined) {
+            setJoined(this.size - 1);
+        }
+    }
+
+    /**
+     * Appends a packed position recorded at the given time (see
+     * {@link #timeStamp}), joined to the previous one if joined is true.
+     */
+    public void add(long packed, boolean joined, int time) {
+        add(packed, joined);
+        if (time != 0) {
+            setTime(this.size - 1, time);
+        }
+    }
+
+    /**
+     * Returns the time the position at the index was recorded at, or 0 if unknown.
+     */
+    public int getTime(int index) {
+        int[] times = this.times;
+        return times != null && index < times.length ? times[index] : 0;
+    }
+
+    /**
+     * Returns true if any position has a time.
+     */
+    public boolean hasTimes() {
+        return this.times != null;
+    }
+
+    /**
+     * Returns the first index from which on every position was recorded at or
+     * after the given time, or the size if there is none. Positions are
+     * recorded in order, so usually all positions before it are older and all
+     * after it newer; older positions added later, e.g. by merging sessions,
+     * are after it, like positions without a time after the last one with.
+     */
+    public int indexAtTime(int time) {
+        int[] timeIndex = this.timeIndex;
+        if (timeIndex == null) {
+            return this.size;
+        }
+        int strides = (this.timedSize + TIME_INDEX_STRIDE - 1) >> TIME_INDEX_SHIFT;
+        // The index holds running maxima, so it is sorted.
+        int low = 0;
+        int high = strides;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timeIndex[mid] >= time) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        if (low == strides) {
+            return this.size;
+        }
+        // Everything before the stride is older, find the first position in it reaching the time.
+        int end = Math.min(this.timedSize, (low + 1) << TIME_INDEX_SHIFT);
+        for (int i = low << TIME_INDEX_SHIFT; i < end; i++) {
+            if (getTime(i) >= time) {
+                return i;
+            }
+        }
+        return this.size;
+    }
+
+    /**
+     * Returns the time of the given epoch millis as stored with positions.
+     */
+    public static int timeStamp(long epochMillis) {
+        return (int) Math.max(1, epochMillis / 1000 - TIME_EPOCH_SECONDS);
+    }
+
+    /**
+     * Returns the epoch millis of a time stored with positions.
+     */
+    public static long timeMillis(int time) {
+        return (time + TIME_EPOCH_SECONDS) * 1000;
+    }
+
+    /**
+     * Returns true if the position at the index is joined to the previous one.
+     */
+    public boolean isJoined(int index) {
+        long[] joins = this.joins;
+        return joins != null && (index >> 6) < joins.length && (joins[index >> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Returns true if any position is joined to its previous one.
+     */
+    public boolean hasJoins() {
+        return this.joins != null;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public long get(int index) {
+        return this.positions[index];
+    }
+
+    public int getX(int index) {
+        return unpackX(this.positions[index]);
+    }
+
+    public int getY(int index) {
+        return unpackY(this.positions[index]);
+    }
+
+    public int getZ(int index) {
+        return unpackZ(this.positions[index]);
+    }
+
+    /**
+     * Returns the estimated heap bytes of the backing array. Snapshots share
+     * it, so only count it for the live store.
+     */
+    public long estimatedBytes() {
+        return 16 + this.positions.length * 8L + (this.joins != null ? this.joins.length * 8L : 0)
+            + (this.times != null ? this.times.length * 4L + this.timeIndex.length * 4L : 0);
+    }
+
+    /**
+     * Makes room for at least the given number of positions.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.positions.length) {
+            grow(capacity);
+        }
+    }
+
+    private void setJoined(int index) {
+        if (this.joins == null || (index >> 6) >= this.joins.length) {
+            // Sized with the positions, so it grows as rarely.
+            long[] grown = new long[(this.positions.length + 63) >> 6];
+            if (this.joins != null) {
+                System.arraycopy(this.joins, 0, grown, 0, this.joins.length);
+            }
+            this.joins = grown;
+        }
+        // Bits are only set for new positions, which snapshots sharing the array don't see.
+        this.joins[index >> 6] |= 1L << index;
+    }
+
+    private void setTime(int index, int time) {
+        if (this.times == null || index >= this.times.length) {
+            // Sized with the positions, like the joins.
+            int[] grown = new int[this.positions.length];
+            int[] grownIndex = new int[(this.positions.length + TIME_INDEX_STRIDE - 1) >> TIME_INDEX_SHIFT];
+            if (this.times != null) {
+                System.arraycopy(this.times, 0, grown, 0, this.times.length);
+                System.arraycopy(this.timeIndex, 0, grownIndex, 0, this.timeIndex.length);
+            }
+            this.times = grown;
+            this.timeIndex = grownIndex;
+        }
+        this.times[index] = time;
+        // Strides since the last time, whose positions have none, keep its maximum.
+        int stride = index >> TIME_INDEX_SHIFT;
+        int lastStride = this.timedSize > 0 ? (this.timedSize - 1) >> TIME_INDEX_SHIFT : stride;
+        for (int i = lastStride + 1; i <= stride; i++) {
+            this.timeIndex[i] = this.timeIndex[i - 1];
+        }
+        this.timeIndex[stride] = Math.max(this.timeIndex[stride], time);
+        this.timedSize = Math.max(this.timedSize, index + 1);
+    }
+
+    private void grow(int minCapacity) {
+        // Grow by 50%, like ArrayList.
+        int capacity = Math.max(minCapacity, this.positions.length + (this.positions.length >> 1));
+        long[] grown = new long[capacity];
+        System.arraycopy(this.positions, 0, grown, 0, this.size);
+        this.positions = grown;
+    }
+
+    public static long pack(int x, int y, int z) {
+        return ((x & MASK_XZ) << BIT_SHIFT_X) | ((z & MASK_XZ) << BIT_SHIFT_Z) | (y & MASK_Y);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> BIT_SHIFT_X);
+    }
+
+    public static int unpackY(long packed) {
+        return (int) (packed << (64 - SIZE_BITS_Y) >> (64 - SIZE_BITS_Y));
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) (packed << (64 - BIT_SHIFT_X) >> (64 - SIZE_BITS_XZ));
+    }
+}
@@ -0,0 +1,290 @@
+package com.pathtracker;
+
+import java.util.Arrays;
+
+/**
+ * Distinct visited block positions with the number of visits and the
+ * neighbors each was walked to or from. Unlike {@link PositionStore}, walking
+ * the same corridor again doesn't add entries, so the store grows with the
+ * explored area rather than with the time played.
+ *
+ * Entries are kept in the order they were first visited, so their index stays
+ * the same once added. An open addressing table of entry indices maps packed
+ * positions to entries, without boxing.
+ */
+public class VisitCountStore {
+    // Offsets up to 2 per axis, like PathGeometry.areNeighbors, indexed in the
+    // 5x5x5 cube around a block. Only the entry the offset leads away from in
+    // the upper half of the cube keeps a link, as a bit per offset there.
+    private static final int CENTER_OFFSET = 62;
+    // Entries visited since the last clearChanges() that are remembered at most.
+    private static final int MAX_CHANGES = 4096;
+
+    private long[] keys;
+    private int[] counts;
+    private long[] links;
+    private int size = 0;
+    // Entry index + 1 per slot, 0 for an empty slot. The length is a power of two.
+    private int[] table;
+    // The entry of the last visit, linked to the next one if they are neighbors.
+    private int lastEntry = -1;
+
+    // Entries visited since the last clearChanges(), for the renderer.
+    private int[] changes = new int[64];
+    private int changeCount = 0;
+    private boolean changesOverflowed = false;
+
+    public VisitCountStore() {
+        this(64);
+    }
+
+    public VisitCountStore(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 16);
+        this.keys = new long[capacity];
+        this.counts = new int[capacity];
+        this.links = new long[capacity];
+        this.table = new int[tableSizeFor(capacity)];
+    }
+
+    /**
+     * Records a visit of the given packed position, and links it to the
+     * previously visited one if they are neighbors in the sense of
+     * {@link PathGeometry#areNeighbors}, so the heatmap has no gaps where the
+     * path has none. Returns its entry index.
+     */
+    public int visit(long packed) {
+        int entry = add(packed, 1, 0);
+        if (this.lastEntry >= 0 && this.lastEntry != entry) {
+            long last = this.keys[this.lastEntry];
+            int bit = linkBit(last, packed);
+            if (bit >= 0) {
+                this.links[this.lastEntry] |= 1L << bit;
+                recordChange(this.lastEntry);
+            } else if ((bit = linkBit(packed, last)) >= 0) {
+                // Already recorded as changed by add().
+                this.links[entry] |= 1L << bit;
+            }
+        }
+        this.lastEntry = entry;
+        return entry;
+    }
+
+    /**
+     * Adds the given visits and links to the entry of the packed position,
+     * creating it if needed. Returns its entry index.
+     */
+    public int add(long packed, int count, long links) {
+        int slot = slotOf(packed);
+        int entry = this.table[slot] - 1;
+        if (entry < 0) {
+            entry = this.size;
+            if (entry == this.keys.length) {
+                int capacity = this.keys.length + (this.keys.length >> 1);
+                this.keys = Arrays.copyOf(this.keys, capacity);
+                this.counts = Arrays.copyOf(this.counts, capacity);
+                this.links = Arrays.copyOf(this.links, capacity);
+            }
+            this.keys[entry] = packed;
+            this.size++;
+            this.table[slot] = entry + 1;
+            if (this.size * 2 > this.table.length) {
+                rehash(this.table.length * 2);
+            }
+        }
+        // Saturate instead of overflowing on very busy blocks.
+        this.counts[entry] = (int) Math.min(Integer.MAX_VALUE, (long) this.counts[entry] + count);
+        this.links[entry] |= links;
+        recordChange(entry);
+        return entry;
+    }
+
+    /**
+     * Adds all visits and links of the other store to this one.
+     */
+    public void addAll(VisitCountStore other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.keys[i], other.counts[i], other.links[i]);
+        }
+    }
+
+    /**
+     * Returns a copy that can be handed to another thread.
+     */
+    public VisitCountStore copy() {
+        VisitCountStore copy = new VisitCountStore(this.size);
+        for (int i = 0; i < this.size; i++) {
+            copy.add(this.keys[i], this.counts[i], this.links[i]);
+        }
+        copy.clearChanges();
+        return copy;
+    }
+
+    /**
+     * Returns the entry index of the packed position, or -1 if it wasn't visited.
+     */
+    public int indexOf(long packed) {
+        return this.table[slotOf(packed)] - 1;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public long get(int index) {
+        return this.keys[index];
+    }
+
+    public int getX(int index) {
+        return PositionStore.unpackX(this.keys[index]);
+    }
+
+    public int getY(int index) {
+        return PositionStore.unpackY(this.keys[index]);
+    }
+
+    public int getZ(int index) {
+        return PositionStore.unpackZ(this.keys[index]);
+    }
+
+    public int getCount(int index) {
+        return this.counts[index];
+    }
+
+    /**
+     * Returns the neighbors the entry keeps links to, as bits, see {@link #linkBit}.
+     * A link to a neighbor is only kept by one of the two entries.
+     */
+    public long getLinks(int index) {
+        return this.links[index];
+    }
+
+    /**
+     * Returns the bit a keeps for a link to b, or -1 if they aren't neighbors
+     * or b keeps the link instead (then this returns the bit for b to a).
+     */
+    public static int linkBit(long a, long b) {
+        int dx = PositionStore.unpackX(b) - PositionStore.unpackX(a);
+        int dy = PositionStore.unpackY(b) - PositionStore.unpackY(a);
+        int dz = PositionStore.unpackZ(b) - PositionStore.unpackZ(a);
+        if (dx < -2 || dx > 2 || dy < -2 || dy > 2 || dz < -2 || dz > 2) {
+            return -1;
+        }
+        int offset = (dx + 2) * 25 + (dy + 2) * 5 + (dz + 2);
+        return offset > CENTER_OFFSET ? offset - CENTER_OFFSET - 1 : -1;
+    }
+
+    /**
+     * Returns the offset along x of the neighbor the link bit leads to.
+     */
+    public static int linkX(int bit) {
+        return (bit + CENTER_OFFSET + 1) / 25 - 2;
+    }
+
+    public static int linkY(int bit) {
+        return (bit + CENTER_OFFSET + 1) / 5 % 5 - 2;
+    }
+
+    public static int linkZ(int bit) {
+        return (bit + CENTER_OFFSET + 1) % 5 - 2;
+    }
+
+    /**
+     * Converts links stored as a bit per neighbor in the 3x3x3 cube, kept by
+     * both entries (the first version of {@link VisitDataFile}), to the bits
+     * this entry keeps now.
+     */
+    static long upgradeCubeLinks(int cubeLinks) {
+        long links = 0;
+        while (cubeLinks != 0) {
+            int cubeBit = Integer.numberOfTrailingZeros(cubeLinks);
+            cubeLinks &= cubeLinks - 1;
+            int offset = (cubeBit / 9 + 1) * 25 + (cubeBit / 3 % 3 + 1) * 5 + (cubeBit % 3 + 1);
+            if (offset > CENTER_OFFSET) {
+                links |= 1L << (offset - CENTER_OFFSET - 1);
+            }
+        }
+        return links;
+    }
+
+    /**
+     * Returns the number of entries visited since the last clearChanges(), see
+     * {@link #getChange}. If too many were visited to remember them all,
+     * {@link #changesOverflowed()} is true instead.
+     */
+    public int getChangeCount() {
+        return this.changeCount;
+    }
+
+    public int getChange(int i) {
+        return this.changes[i];
+    }
+
+    public boolean changesOverflowed() {
+        return this.changesOverflowed;
+    }
+
+    public void clearChanges() {
+        this.changeCount = 0;
+        this.changesOverflowed = false;
+    }
+
+    /**
+     * Returns the estimated heap bytes of the entries and the table.
+     */
+    public long estimatedBytes() {
+        return 48 + this.keys.length * 20L + this.table.length * 4L + this.changes.length * 4L;
+    }
+
+    private void recordChange(int entry) {
+        if (this.changesOverflowed) {
+            return;
+        }
+        if (this.changeCount == MAX_CHANGES) {
+            this.changesOverflowed = true;
+            return;
+        }
+        if (this.changeCount == this.changes.length) {
+            this.changes = Arrays.copyOf(this.changes, this.changes.length * 2);
+        }
+        this.changes[this.changeCount++] = entry;
+    }
+
+    /**
+     * Returns the slot of the packed position: the one holding its entry, or
+     * the empty one it would go in.
+     */
+    private int slotOf(long packed) {
+        int mask = this.table.length - 1;
+        int slot = mix(packed) & mask;
+        int entry;
+        while ((entry = this.table[slot]) != 0 && this.keys[entry - 1] != packed) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int tableSize) {
+        this.table = new int[tableSize];
+        int mask = tableSize - 1;
+        for (int entry = 0; entry < this.size; entry++) {
+            int slot = mix(this.keys[entry]) & mask;
+            while (this.table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            this.table[slot] = entry + 1;
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(Math.max(8, capacity * 2 - 1)) << 1;
+    }
+}
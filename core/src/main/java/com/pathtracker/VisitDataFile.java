@@ -0,0 +1,202 @@
+package com.pathtracker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes a {@link VisitCountStore}. The file holds the distinct
+ * positions, so it is small enough to be rewritten as a whole on every save.
+ *
+ * The file starts with a header (magic, version, three reserved bytes, entry
+ * count), followed by the deflated entries and their CRC. Each entry stores
+ * its position as zig-zag varint differences to the previous one (entries
+ * are in the order they were first visited, so they are mostly neighbors),
+ * then its visit count and links as varints. Version 1 files kept links to
+ * direct neighbors only, on both entries, and are converted when read (see
+ * {@link VisitCountStore#getLinks}).
+ */
+public class VisitDataFile {
+    // "PTV1"
+    public static final int MAGIC = 0x50545631;
+    public static final int VERSION = 2;
+
+    private final Path dataFile;
+
+    public VisitDataFile(Path dataFile) {
+        this.dataFile = dataFile;
+    }
+
+    public Path getDataFile() {
+        return this.dataFile;
+    }
+
+    /**
+     * Reads the file, or returns an empty store if it doesn't exist.
+     */
+    public synchronized VisitCountStore load() throws IOException {
+        if (!Files.exists(this.dataFile)) {
+            return new VisitCountStore();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.dataFile), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a visit data file: " + this.dataFile);
+            }
+            int version = in.readUnsignedByte();
+            if (version != 1 && version != VERSION) {
+                throw new IOException("Unsupported visit data version " + version + ": " + this.dataFile);
+            }
+            in.skipBytes(3);
+            int count = in.readInt();
+            VisitCountStore store = new VisitCountStore(count);
+            Inflater inflater = new Inflater();
+            try {
+                BufferedInputStream inflated = new BufferedInputStream(new InflaterInputStream(in, inflater, 1 << 16), 1 << 16);
+                CheckedInputStream checked = new CheckedInputStream(inflated, new CRC32());
+                int x = 0, y = 0, z = 0;
+                for (int i = 0; i < count; i++) {
+                    x += readZigZag(checked);
+                    y += readZigZag(checked);
+                    z += readZigZag(checked);
+                    int visits = readVarInt(checked);
+                    long links = version == 1 ? VisitCountStore.upgradeCubeLinks(readVarInt(checked)) : readVarLong(checked);
+                    store.add(PositionStore.pack(x, y, z), visits, links);
+                }
+                long crc = checked.getChecksum().getValue();
+                if ((int) crc != new DataInputStream(inflated).readInt()) {
+                    throw new IOException("Corrupt visit data (CRC mismatch): " + this.dataFile);
+                }
+            } finally {
+                inflater.end();
+            }
+            store.clearChanges();
+            return store;
+        }
+    }
+
+    /**
+     * Writes the store to a temporary file and moves it over the data file,
+     * so a crash leaves either the old or the new file. Returns the number of
+     * bytes written.
+     */
+    public synchronized long save(VisitCountStore store) throws IOException {
+        Path tempFile = this.dataFile.resolveSibling(this.dataFile.getFileName() + ".tmp");
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.write(new byte[3]);
+            out.writeInt(store.size());
+            DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater, 1 << 16);
+            CheckedOutputStream checked = new CheckedOutputStream(deflated, new CRC32());
+            DataOutputStream entries = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+            int previousX = 0, previousY = 0, previousZ = 0;
+            for (int i = 0; i < store.size(); i++) {
+                int x = store.getX(i);
+                int y = store.getY(i);
+                int z = store.getZ(i);
+                writeZigZag(entries, x - previousX);
+                writeZigZag(entries, y - previousY);
+                writeZigZag(entries, z - previousZ);
+                writeVarInt(entries, store.getCount(i));
+                writeVarLong(entries, store.getLinks(i));
+                previousX = x;
+                previousY = y;
+                previousZ = z;
+            }
+            entries.flush();
+            new DataOutputStream(deflated).writeInt((int) checked.getChecksum().getValue());
+            deflated.finish();
+            out.flush();
+            // On disk before it replaces the old file, like PathDataFile does.
+            channel.force(true);
+        } finally {
+            deflater.end();
+        }
+        long bytes = Files.size(tempFile);
+        try {
+            Files.move(tempFile, this.dataFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, this.dataFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return bytes;
+    }
+
+    public synchronized long sizeOnDisk() throws IOException {
+        return Files.exists(this.dataFile) ? Files.size(this.dataFile) : 0;
+    }
+
+    private static void writeZigZag(DataOutputStream out, int value) throws IOException {
+        writeVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static int readZigZag(InputStream in) throws IOException {
+        int value = readVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated visit data");
+            }
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 35);
+        return value;
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated visit data");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0 && shift < 70);
+        return value;
+    }
+}
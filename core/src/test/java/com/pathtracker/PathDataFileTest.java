@@ -0,0 +1,135 @@
+package com.pathtracker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PathDataFileTest {
+    private static final int START_TIME = PositionStore.timeStamp(1_700_000_000_000L);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void savesAppendToTheJournal() throws IOException {
+        PositionStore positions = TestPaths.walk(3000, 1L, 11, START_TIME);
+        PathDataFile file = new PathDataFile(this.dir.resolve("path.bin"));
+        file.save(TestPaths.prefix(positions, 1000));
+        assertTrue(Files.exists(this.dir.resolve("path.bin")), "the first save writes the main file");
+        file.save(TestPaths.prefix(positions, 2000));
+        file.save(positions);
+        assertTrue(Files.exists(journal()));
+        TestPaths.assertSamePositions(positions, new PathDataFile(this.dir.resolve("path.bin")).load());
+    }
+
+    @Test
+    void truncatedJournalTailIsIgnored() throws IOException {
+        PositionStore positions = savedInThreeParts();
+        Files.write(journal(), Arrays.copyOf(Files.readAllBytes(journal()), (int) Files.size(journal()) - 5));
+        PathDataFile file = new PathDataFile(this.dir.resolve("path.bin"));
+        TestPaths.assertSamePositions(TestPaths.prefix(positions, 2000), file.load());
+        assertNull(file.getDamagedCopy(), "a torn write isn't damage");
+        // The next save replaces the torn record.
+        file.save(positions);
+        TestPaths.assertSamePositions(positions, new PathDataFile(this.dir.resolve("path.bin")).load());
+    }
+
+    @Test
+    void journalRecordWithBrokenChecksumIsIgnored() throws IOException {
+        PositionStore positions = savedInThreeParts();
+        PathFileFormatTest.flipByte(journal(), Files.size(journal()) - 100);
+        PathDataFile file = new PathDataFile(this.dir.resolve("path.bin"));
+        TestPaths.assertSamePositions(TestPaths.prefix(positions, 2000), file.load());
+        file.save(positions);
+        TestPaths.assertSamePositions(positions, new PathDataFile(this.dir.resolve("path.bin")).load());
+    }
+
+    @Test
+    void compactionFoldsTheJournalIntoTheMainFile() throws IOException {
+        PositionStore positions = savedInThreeParts();
+        PathDataFile file = new PathDataFile(this.dir.resolve("path.bin"));
+        file.load();
+        file.compact();
+        assertFalse(Files.exists(journal()));
+        try (FileChannel channel = FileChannel.open(this.dir.resolve("path.bin"), StandardOpenOption.READ)) {
+            assertEquals(3000, PathFileFormat.readCount(channel));
+        }
+        TestPaths.assertSamePositions(positions, new PathDataFile(this.dir.resolve("path.bin")).load());
+    }
+
+    @Test
+    void journalAlreadyInTheMainFileIsSkipped() throws IOException {
+        PositionStore positions = savedInThreeParts();
+        byte[] journal = Files.readAllBytes(journal());
+        PathDataFile file = new PathDataFile(this.dir.resolve("path.bin"));
+        file.load();
+        file.compact();
+        // As if the game stopped after replacing the main file, before deleting the journal.
+        Files.write(journal(), journal);
+        PathDataFile reopened = new PathDataFile(this.dir.resolve("path.bin"));
+        TestPaths.assertSamePositions(positions, reopened.load());
+        // New positions are still appended after the stale records.
+        PositionStore more = TestPaths.prefix(positions, positions.size());
+        more.add(PositionStore.pack(5, 70, 5), false, START_TIME + 5000);
+        reopened.save(more);
+        TestPaths.assertSamePositions(more, new PathDataFile(this.dir.resolve("path.bin")).load());
+        // And compacting again doesn't copy the stale records twice.
+        reopened.compact();
+        TestPaths.assertSamePositions(more, new PathDataFile(this.dir.resolve("path.bin")).load());
+    }
+
+    @Test
+    void damagedMainFileKeepsTheBlocksBeforeTheDamage() throws IOException {
+        PositionStore positions = TestPaths.walk(PathFileFormat.BLOCK_POSITIONS * 2 + 500, 2L, 0, 0);
+        new PathDataFile(this.dir.resolve("path.bin")).save(positions);
+        PathFileFormatTest.flipByte(this.dir.resolve("path.bin"), Files.size(this.dir.resolve("path.bin")) - 10);
+        PathDataFile file = new PathDataFile(this.dir.resolve("path.bin"));
+        TestPaths.assertSamePositions(TestPaths.prefix(positions, PathFileFormat.BLOCK_POSITIONS * 2), file.load());
+        assertNotNull(file.getDamagedCopy());
+        assertTrue(Files.exists(file.getDamagedCopy()));
+        assertFalse(Files.exists(this.dir.resolve("path.bin")));
+    }
+
+    @Test
+    void legacyFileIsLoadedAndUpgraded() throws IOException {
+        PositionStore positions = TestPaths.walk(1000, 3L, 0, 0);
+        PathFileFormatTest.writeLegacy(this.dir.resolve("path.bin"), positions);
+        PathDataFile file = new PathDataFile(this.dir.resolve("path.bin"));
+        TestPaths.assertSamePositions(positions, file.load());
+        assertTrue(file.upgradeFormat());
+        assertFalse(file.upgradeFormat(), "already upgraded");
+        try (FileChannel channel = FileChannel.open(this.dir.resolve("path.bin"), StandardOpenOption.READ)) {
+            assertTrue(PathFileFormat.isCurrentFormat(channel));
+        }
+        TestPaths.assertSamePositions(positions, new PathDataFile(this.dir.resolve("path.bin")).load());
+    }
+
+    /**
+     * Saves 3000 positions with joins and times: 1000 to the main file and two
+     * journal records of 1000 each.
+     */
+    private PositionStore savedInThreeParts() throws IOException {
+        PositionStore positions = TestPaths.walk(3000, 4L, 13, START_TIME);
+        PathDataFile file = new PathDataFile(this.dir.resolve("path.bin"));
+        file.save(TestPaths.prefix(positions, 1000));
+        file.save(TestPaths.prefix(positions, 2000));
+        file.save(positions);
+        return positions;
+    }
+
+    private Path journal() {
+        return this.dir.resolve("path.journal");
+    }
+}
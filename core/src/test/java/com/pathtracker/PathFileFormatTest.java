@@ -0,0 +1,154 @@
+package com.pathtracker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class PathFileFormatTest {
+    // Codec byte of the first block: after the file header and the block's position count.
+    private static final int FIRST_CODEC_OFFSET = PathFileFormat.HEADER_BYTES + 4;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void blocksRoundTripWithoutJoinsOrTimes() throws IOException {
+        PositionStore positions = TestPaths.walk(PathFileFormat.BLOCK_POSITIONS * 2 + 123, 1L, 0, 0);
+        Path file = write(positions);
+        boolean[] extras = {false};
+        PositionStore read = read(file, extras);
+        TestPaths.assertSamePositions(positions, read);
+        assertFalse(extras[0], "blocks without joins or times have no join bits or times");
+        assertEquals(0, codec(file) & 0xF0);
+    }
+
+    @Test
+    void blocksRoundTripWithJoins() throws IOException {
+        PositionStore positions = TestPaths.walk(PathFileFormat.BLOCK_POSITIONS + 77, 2L, 7, 0);
+        Path file = write(positions);
+        TestPaths.assertSamePositions(positions, read(file, new boolean[1]));
+        assertEquals(0x10, codec(file) & 0xF0);
+    }
+
+    @Test
+    void blocksRoundTripWithJoinsAndTimes() throws IOException {
+        PositionStore positions = TestPaths.walk(PathFileFormat.BLOCK_POSITIONS + 77, 3L, 5, PositionStore.timeStamp(1_700_000_000_000L));
+        Path file = write(positions);
+        TestPaths.assertSamePositions(positions, read(file, new boolean[1]));
+        assertEquals(0x30, codec(file) & 0xF0);
+    }
+
+    @Test
+    void blocksRoundTripWithTimesOnlyAfterAWhile() throws IOException {
+        // Positions of older versions come first, without a time.
+        PositionStore positions = TestPaths.walk(1000, 4L, 0, 0);
+        PositionStore timed = TestPaths.walk(1000, 5L, 0, 1000);
+        positions.addAll(timed);
+        TestPaths.assertSamePositions(positions, read(write(positions), new boolean[1]));
+    }
+
+    @Test
+    void compressibleBlocksAreDeflated() throws IOException {
+        PositionStore positions = TestPaths.walk(10000, 6L, 0, 0);
+        Path file = write(positions);
+        assertEquals(1, codec(file) & 0x0F);
+        TestPaths.assertSamePositions(positions, read(file, new boolean[1]));
+    }
+
+    @Test
+    void incompressibleBlocksAreStoredAsVarints() throws IOException {
+        PositionStore positions = TestPaths.scatter(10000, 7L);
+        Path file = write(positions);
+        assertEquals(0, codec(file) & 0x0F);
+        TestPaths.assertSamePositions(positions, read(file, new boolean[1]));
+    }
+
+    @Test
+    void blockWithBrokenChecksumFailsToRead() throws IOException {
+        Path file = write(TestPaths.walk(10000, 8L, 0, 0));
+        flipByte(file, Files.size(file) - 10);
+        assertThrows(IOException.class, () -> read(file, new boolean[1]));
+    }
+
+    @Test
+    void headerHoldsTheCount() throws IOException {
+        Path file = write(TestPaths.walk(PathFileFormat.BLOCK_POSITIONS + 5, 9L, 0, 0));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertTrue(PathFileFormat.isCurrentFormat(channel));
+            assertEquals(PathFileFormat.BLOCK_POSITIONS + 5, PathFileFormat.readCount(channel));
+        }
+    }
+
+    @Test
+    void legacyFileIsRead() throws IOException {
+        PositionStore positions = TestPaths.walk(1000, 10L, 0, 0);
+        Path file = this.dir.resolve("legacy.bin");
+        writeLegacy(file, positions);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertFalse(PathFileFormat.isCurrentFormat(channel));
+            assertEquals(1000, PathFileFormat.readCount(channel));
+        }
+        TestPaths.assertSamePositions(positions, read(file, new boolean[1]));
+    }
+
+    /**
+     * Writes the positions of the store as raw 12-byte records, like old versions did.
+     */
+    static void writeLegacy(Path file, PositionStore positions) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(positions.size() * 12);
+        for (int i = 0; i < positions.size(); i++) {
+            buffer.putInt(positions.getX(i)).putInt(positions.getY(i)).putInt(positions.getZ(i));
+        }
+        Files.write(file, buffer.array());
+    }
+
+    static void flipByte(Path file, long offset) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[(int) offset] ^= 0x5A;
+        Files.write(file, bytes);
+    }
+
+    private Path write(PositionStore positions) throws IOException {
+        Path file = this.dir.resolve("path.bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            PathFileFormat.Writer writer = new PathFileFormat.Writer(channel);
+            for (int i = 0; i < positions.size(); i++) {
+                writer.add(positions.get(i), positions.isJoined(i), positions.getTime(i));
+            }
+            assertEquals(positions.size(), writer.getCount());
+            writer.finish();
+        }
+        return file;
+    }
+
+    /**
+     * Reads the file back, setting extras[0] if any block came with join bits or times.
+     */
+    private static PositionStore read(Path file, boolean[] extras) throws IOException {
+        PositionStore positions = new PositionStore();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            PathFileFormat.read(channel, (packed, joins, times, count) -> {
+                extras[0] |= joins != null || times != null;
+                for (int i = 0; i < count; i++) {
+                    positions.add(packed[i], joins != null && (joins[i >> 6] & (1L << i)) != 0, times != null ? times[i] : 0);
+                }
+            });
+        }
+        return positions;
+    }
+
+    private static int codec(Path file) throws IOException {
+        return Files.readAllBytes(file)[FIRST_CODEC_OFFSET] & 0xFF;
+    }
+}
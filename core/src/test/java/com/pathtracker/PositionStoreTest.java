@@ -0,0 +1,68 @@
+package com.pathtracker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+class PositionStoreTest {
+    private static final int STRIDE = PositionStore.TIME_INDEX_STRIDE;
+
+    @Test
+    void indexAtTimeFindsTheFirstPositionAtStrideBoundaries() {
+        // Position i is recorded at time i + 1.
+        PositionStore positions = TestPaths.walk(STRIDE * 3 + 10, 1L, 0, 1);
+        for (int index : new int[] {0, 1, STRIDE - 1, STRIDE, STRIDE + 1, STRIDE * 2 - 1, STRIDE * 2, STRIDE * 3 - 1, STRIDE * 3,
+                positions.size() - 1}) {
+            assertEquals(index, positions.indexAtTime(index + 1), "time of position " + index);
+        }
+        assertEquals(0, positions.indexAtTime(0));
+        assertEquals(positions.size(), positions.indexAtTime(positions.size() + 1));
+    }
+
+    @Test
+    void indexAtTimeOfExactlyFullStrides() {
+        PositionStore positions = TestPaths.walk(STRIDE * 2, 2L, 0, 1);
+        assertEquals(STRIDE * 2 - 1, positions.indexAtTime(STRIDE * 2));
+        assertEquals(STRIDE * 2, positions.indexAtTime(STRIDE * 2 + 1));
+        // Growing past the boundary starts a new stride.
+        positions.add(PositionStore.pack(0, 64, 0), false, STRIDE * 2 + 1);
+        assertEquals(STRIDE * 2, positions.indexAtTime(STRIDE * 2 + 1));
+    }
+
+    @Test
+    void indexAtTimeSkipsPositionsWithoutTimes() {
+        PositionStore positions = TestPaths.walk(STRIDE + 5, 3L, 0, 0);
+        assertFalse(positions.hasTimes());
+        assertEquals(positions.size(), positions.indexAtTime(1));
+        // Timed positions after untimed ones, starting in the middle of a stride.
+        positions.addAll(TestPaths.walk(STRIDE * 2, 4L, 0, 1000));
+        assertEquals(STRIDE + 5, positions.indexAtTime(1));
+        assertEquals(STRIDE + 5 + STRIDE, positions.indexAtTime(1000 + STRIDE));
+        // Untimed positions at the end are never in a window.
+        positions.add(PositionStore.pack(0, 64, 0));
+        assertEquals(positions.size(), positions.indexAtTime(1000 + STRIDE * 2));
+    }
+
+    @Test
+    void indexAtTimeOfOlderPositionsAddedLater() {
+        PositionStore positions = TestPaths.walk(STRIDE, 5L, 0, 5000);
+        // A merged session recorded earlier.
+        positions.addAll(TestPaths.walk(STRIDE, 6L, 0, 1000));
+        assertEquals(10, positions.indexAtTime(5010), "the older positions come after the first one reaching the time");
+        assertEquals(0, positions.indexAtTime(1000));
+        assertEquals(positions.size(), positions.indexAtTime(5000 + STRIDE));
+    }
+
+    @Test
+    void snapshotsKeepTheirSizeAndTimes() {
+        PositionStore positions = TestPaths.walk(STRIDE + 1, 7L, 3, 100);
+        PositionStore snapshot = positions.snapshot();
+        positions.add(PositionStore.pack(1, 64, 1), true, 100 + STRIDE + 1);
+        assertEquals(STRIDE + 1, snapshot.size());
+        assertEquals(STRIDE + 1, snapshot.indexAtTime(100 + STRIDE + 1));
+        TestPaths.assertSamePositions(TestPaths.prefix(positions, STRIDE + 1), snapshot);
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.add(PositionStore.pack(0, 0, 0)));
+    }
+}
@@ -0,0 +1,67 @@
+package com.pathtracker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+/**
+ * Generates reproducible paths for the tests, and compares them.
+ */
+final class TestPaths {
+    private TestPaths() {
+    }
+
+    /**
+     * A random walk of single block steps starting at the given time, one
+     * second per position. Every joinEvery-th position is joined to the previous
+     * one (none if 0); times are left out if startTime is 0.
+     */
+    static PositionStore walk(int points, long seed, int joinEvery, int startTime) {
+        Random random = new Random(seed);
+        PositionStore positions = new PositionStore(points);
+        int x = 0, y = 64, z = 0;
+        for (int i = 0; i < points; i++) {
+            x += random.nextInt(3) - 1;
+            z += random.nextInt(3) - 1;
+            if (random.nextInt(8) == 0) {
+                y = Math.max(-64, Math.min(319, y + random.nextInt(3) - 1));
+            }
+            boolean joined = joinEvery > 0 && i > 0 && i % joinEvery == 0;
+            positions.add(PositionStore.pack(x, y, z), joined, startTime != 0 ? startTime + i : 0);
+        }
+        return positions;
+    }
+
+    /**
+     * Positions scattered over a large area, which varints and deflate can't
+     * make much smaller.
+     */
+    static PositionStore scatter(int points, long seed) {
+        Random random = new Random(seed);
+        PositionStore positions = new PositionStore(points);
+        for (int i = 0; i < points; i++) {
+            positions.add(random.nextInt(1 << 24) - (1 << 23), random.nextInt(384) - 64, random.nextInt(1 << 24) - (1 << 23));
+        }
+        return positions;
+    }
+
+    /**
+     * Returns the first count positions of the store as a store of their own.
+     */
+    static PositionStore prefix(PositionStore positions, int count) {
+        PositionStore prefix = new PositionStore(count);
+        for (int i = 0; i < count; i++) {
+            prefix.add(positions.get(i), positions.isJoined(i), positions.getTime(i));
+        }
+        return prefix;
+    }
+
+    static void assertSamePositions(PositionStore expected, PositionStore actual) {
+        assertEquals(expected.size(), actual.size(), "size");
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i), "position " + i);
+            assertEquals(expected.isJoined(i), actual.isJoined(i), "join of " + i);
+            assertEquals(expected.getTime(i), actual.getTime(i), "time of " + i);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.pathtracker;
+
+import java.util.Arrays;
+
+import org.joml.Matrix4f;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+
+import net.minecraft.client.gl.GlUsage;
+import net.minecraft.client.gl.ShaderProgram;
+import net.minecraft.client.gl.VertexBuffer;
+import net.minecraft.client.render.BufferBuilder;
+import net.minecraft.client.render.BuiltBuffer;
+import net.minecraft.client.render.Frustum;
+import net.minecraft.client.render.VertexFormat;
+import net.minecraft.client.render.VertexFormats;
+import net.minecraft.client.util.BufferAllocator;
+import net.minecraft.client.util.math.MatrixStack;
+import net.minecraft.util.math.Box;
+import net.minecraft.util.math.Vec3d;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+
+/**
+ * Draws a {@link VisitCountStore} as a heatmap: a tile on every visited block,
+ * brighter the more often it was visited, and a ribbon to each neighbor it was
+ * walked to or from.
+ *
+ * Entries are grouped by the regions of {@link PathSpatialIndex}, each with
+ * its own vertex buffer. A region is only rebuilt when one of its entries was
+ * visited (see {@link VisitCountStore#getChange}), and only while it is in
+ * range. Rebuilding is cheap compared to the spline path, so it happens on the
+ * render thread, limited to the build budget per frame.
+ */
+@Environment(EnvType.CLIENT)
+public class PathHeatmapRenderer {
+    // Half the size of a visited block's tile.
+    private static final float TILE_HALF_SIZE = 0.3f;
+    // Height of the tiles above the bottom of the block, so they don't flicker with the floor.
+    private static final float TILE_OFFSET = 0.05f;
+    // Visit count at which a tile reaches full intensity.
+    private static final int FULL_INTENSITY_COUNT = 256;
+    // Initial size of the vertex memory, it grows as needed.
+    private static final int ALLOCATOR_SIZE = 1 << 16;
+
+    /**
+     * The entries of a region, and the buffer they were drawn into last.
+     */
+    private static class Region {
+        int[] entries = new int[16];
+        int entryCount = 0;
+        boolean dirty = true;
+        VertexBuffer buffer;
+        int vertexCount = 0;
+        // Vertices are relative to the block of the first entry.
+        int originX, originY, originZ;
+        double minX, minY, minZ;
+        double maxX, maxY, maxZ;
+        // The bounds as a box for the frustum test, made when the region is built rather than every frame.
+        Box bounds;
+
+        void addEntry(int entry) {
+            if (this.entryCount == this.entries.length) {
+                this.entries = Arrays.copyOf(this.entries, this.entries.length * 2);
+            }
+            this.entries[this.entryCount++] = entry;
+        }
+
+        boolean intersects(Vec3d camPos, int renderDistance) {
+            return maxX >= camPos.x - renderDistance && minX <= camPos.x + renderDistance
+                && maxY >= camPos.y - renderDistance && minY <= camPos.y + renderDistance
+                && maxZ >= camPos.z - renderDistance && minZ <= camPos.z + renderDistance;
+        }
+
+        boolean isVisible(Frustum frustum) {
+            return frustum == null || bounds == null || frustum.isVisible(bounds);
+        }
+
+        void close() {
+            if (buffer != null) {
+                buffer.close();
+                buffer = null;
+            }
+        }
+    }
+
+    private final Long2ObjectOpenHashMap<Region> regions = new Long2ObjectOpenHashMap<>();
+    // The store the regions were built from, and how many of its entries were sorted into regions.
+    private VisitCountStore source = null;
+    private int scannedSize = 0;
+    private BufferAllocator allocator = null;
+
+    // Appearance the regions were built with.
+    private float thickness = -1.0f;
+    private float red, green, blue, alpha;
+
+    // What the last frame drew and uploaded, for the stats.
+    private int drawnVertices = 0;
+    private int drawnSections = 0;
+    private int uploadedVertices = 0;
+
+    // Reused every frame to avoid allocating a matrix per region.
+    private final Matrix4f viewMatrix = new Matrix4f();
+    private final Matrix4f regionMatrix = new Matrix4f();
+
+    /**
+     * Draws the heatmap of the given store, rebuilding the regions in range
+     * whose entries changed. Expects the shader and render state to be set up
+     * already.
+     */
+    public void render(MatrixStack matrixStack, Frustum frustum, Vec3d camPos, VisitCountStore visits,
+                       PathStorageSessions settings, float red, float green, float blue) {
+        this.drawnVertices = 0;
+        this.drawnSections = 0;
+        this.uploadedVertices = 0;
+        if (visits != this.source || visits.size() < this.scannedSize) {
+            clear();
+            this.source = visits;
+        }
+        if (this.thickness != settings.getThickness() || this.alpha != settings.getTransparency()
+                || this.red != red || this.green != green || this.blue != blue) {
+            this.thickness = settings.getThickness();
+            this.alpha = settings.getTransparency();
+            this.red = red;
+            this.green = green;
+            this.blue = blue;
+            markAllDirty();
+        }
+        update(visits);
+
+        ShaderProgram shader = RenderSystem.getShader();
+        Matrix4f projectionMatrix = RenderSystem.getProjectionMatrix();
+        this.viewMatrix.set(RenderSystem.getModelViewMatrix()).mul(matrixStack.peek().getPositionMatrix());
+        int renderDistance = settings.getRenderDistance();
+        int buildBudgetLeft = settings.getBuildBudget();
+        for (Region region : this.regions.values()) {
+            if (region.dirty && buildBudgetLeft > 0 && region.intersects(camPos, renderDistance)) {
+                build(region, visits);
+                buildBudgetLeft -= region.vertexCount;
+            }
+            if (region.buffer == null || !region.intersects(camPos, renderDistance) || !region.isVisible(frustum)) {
+                continue;
+            }
+            this.regionMatrix.set(this.viewMatrix).translate(
+                (float) (region.originX - camPos.x),
+                (float) (region.originY - camPos.y),
+                (float) (region.originZ - camPos.z));
+            region.buffer.bind();
+            region.buffer.draw(this.regionMatrix, projectionMatrix, shader);
+            this.drawnVertices += region.vertexCount;
+            this.drawnSections++;
+        }
+        VertexBuffer.unbind();
+    }
+
+    /**
+     * Sorts new entries into their regions, and marks the regions of visited
+     * entries for a rebuild.
+     */
+    private void update(VisitCountStore visits) {
+        for (int entry = this.scannedSize; entry < visits.size(); entry++) {
+            regionOf(visits, entry).addEntry(entry);
+        }
+        if (visits.changesOverflowed()) {
+            markAllDirty();
+        } else {
+            for (int i = 0; i < visits.getChangeCount(); i++) {
+                regionOf(visits, visits.getChange(i)).dirty = true;
+            }
+        }
+        visits.clearChanges();
+        this.scannedSize = visits.size();
+    }
+
+    private Region regionOf(VisitCountStore visits, int entry) {
+        int x = visits.getX(entry);
+        int z = visits.getZ(entry);
+        long key = PathSpatialIndex.regionKey(x >> PathSpatialIndex.REGION_SHIFT, z >> PathSpatialIndex.REGION_SHIFT);
+        Region region = this.regions.get(key);
+        if (region == null) {
+            region = new Region();
+            region.originX = x;
+            region.originY = visits.getY(entry);
+            region.originZ = z;
+            // Until built, cover the whole region so it is found in range.
+            region.minX = x & ~(PathSpatialIndex.REGION_SIZE - 1);
+            region.minY = Double.NEGATIVE_INFINITY;
+            region.minZ = z & ~(PathSpatialIndex.REGION_SIZE - 1);
+            region.maxX = region.minX + PathSpatialIndex.REGION_SIZE;
+            region.maxY = Double.POSITIVE_INFINITY;
+            region.maxZ = region.minZ + PathSpatialIndex.REGION_SIZE;
+            this.regions.put(key, region);
+        }
+        return region;
+    }
+
+    private void markAllDirty() {
+        for (Region region : this.regions.values()) {
+            region.dirty = true;
+        }
+    }
+
+    /**
+     * Tessellates the entries of the region and uploads them. Must be called
+     * on the render thread.
+     */
+    private void build(Region region, VisitCountStore visits) {
+        if (this.allocator == null) {
+            this.allocator = new BufferAllocator(ALLOCATOR_SIZE);
+        }
+        BufferBuilder buffer = new BufferBuilder(this.allocator, VertexFormat.DrawMode.QUADS, VertexFormats.POSITION_COLOR);
+        int vertexCount = 0;
+        region.minX = region.minY = region.minZ = Double.POSITIVE_INFINITY;
+        region.maxX = region.maxY = region.maxZ = Double.NEGATIVE_INFINITY;
+        double logFull = Math.log(FULL_INTENSITY_COUNT);
+        for (int i = 0; i < region.entryCount; i++) {
+            int entry = region.entries[i];
+            int x = visits.getX(entry);
+            int y = visits.getY(entry);
+            int z = visits.getZ(entry);
+            region.minX = Math.min(region.minX, x);
+            region.minY = Math.min(region.minY, y);
+            region.minZ = Math.min(region.minZ, z);
+            region.maxX = Math.max(region.maxX, x + 1);
+            region.maxY = Math.max(region.maxY, y + 1);
+            region.maxZ = Math.max(region.maxZ, z + 1);
+            // Intensity grows with the logarithm of the count, so paths walked
+            // a few times already stand out from the ones walked once.
+            float t = (float) Math.min(1.0, Math.log(visits.getCount(entry)) / logFull);
+            float shade = 0.35f + 0.65f * t;
+            float r = this.red * shade, g = this.green * shade, b = this.blue * shade;
+            float a = this.alpha * (0.3f + 0.7f * t);
+            float cx = x - region.originX + 0.5f;
+            float cy = y - region.originY + TILE_OFFSET;
+            float cz = z - region.originZ + 0.5f;
+            buffer.vertex(cx - TILE_HALF_SIZE, cy, cz - TILE_HALF_SIZE).color(r, g, b, a);
+            buffer.vertex(cx - TILE_HALF_SIZE, cy, cz + TILE_HALF_SIZE).color(r, g, b, a);
+            buffer.vertex(cx + TILE_HALF_SIZE, cy, cz + TILE_HALF_SIZE).color(r, g, b, a);
+            buffer.vertex(cx + TILE_HALF_SIZE, cy, cz - TILE_HALF_SIZE).color(r, g, b, a);
+            vertexCount += 4;
+            // A ribbon to each neighbor the entry keeps a link to, which may
+            // be two blocks away and in another region.
+            long links = visits.getLinks(entry);
+            while (links != 0) {
+                int bit = Long.numberOfTrailingZeros(links);
+                links &= links - 1;
+                float dx = VisitCountStore.linkX(bit);
+                float dy = VisitCountStore.linkY(bit);
+                float dz = VisitCountStore.linkZ(bit);
+                // Two quads crossing along the link, like the path's ribbons:
+                // one horizontal across the direction (along x for vertical
+                // links), and one perpendicular to both.
+                float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+                float tx = dx / length, ty = dy / length, tz = dz / length;
+                float px = -tz, py = 0.0f, pz = tx;
+                if (px == 0.0f && pz == 0.0f) {
+                    px = 1.0f;
+                }
+                float scale = this.thickness / (float) Math.sqrt(px * px + pz * pz);
+                px *= scale;
+                pz *= scale;
+                float qx = ty * pz - tz * py, qy = tz * px - tx * pz, qz = tx * py - ty * px;
+                buffer.vertex(cx - px, cy, cz - pz).color(r, g, b, a);
+                buffer.vertex(cx + px, cy, cz + pz).color(r, g, b, a);
+                buffer.vertex(cx + dx + px, cy + dy, cz + dz + pz).color(r, g, b, a);
+                buffer.vertex(cx + dx - px, cy + dy, cz + dz - pz).color(r, g, b, a);
+                buffer.vertex(cx - qx, cy - qy, cz - qz).color(r, g, b, a);
+                buffer.vertex(cx + qx, cy + qy, cz + qz).color(r, g, b, a);
+                buffer.vertex(cx + dx + qx, cy + dy + qy, cz + dz + qz).color(r, g, b, a);
+                buffer.vertex(cx + dx - qx, cy + dy - qy, cz + dz - qz).color(r, g, b, a);
+                vertexCount += 8;
+            }
+        }
+        BuiltBuffer built = buffer.endNullable();
+        region.close();
+        if (built != null) {
+            region.buffer = new VertexBuffer(GlUsage.STATIC_WRITE);
+            region.buffer.bind();
+            // Uploading closes the built buffer.
+            region.buffer.upload(built);
+            VertexBuffer.unbind();
+        }
+        // Links reach up to two blocks out of the region's entries, and their
+        // upright quads a bit below the blocks.
+        region.bounds = new Box(region.minX, region.minY, region.minZ, region.maxX, region.maxY, region.maxZ).expand(2 + this.thickness);
+        region.vertexCount = vertexCount;
+        region.dirty = false;
+        this.uploadedVertices += vertexCount;
+    }
+
+    public int getDrawnVertices() {
+        return this.drawnVertices;
+    }
+
+    public int getDrawnSections() {
+        return this.drawnSections;
+    }
+
+    public int getUploadedVertices() {
+        return this.uploadedVertices;
+    }
+
+    public int getBufferedVertices() {
+        int vertices = 0;
+        for (Region region : this.regions.values()) {
+            vertices += region.buffer != null ? region.vertexCount : 0;
+        }
+        return vertices;
+    }
+
+    /**
+     * Returns the estimated heap bytes of the region entry lists.
+     */
+    public long estimatedBytes() {
+        long bytes = 0;
+        for (Region region : this.regions.values()) {
+            bytes += 96 + region.entries.length * 4L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Releases all GPU buffers. The next call to render rebuilds everything.
+     */
+    public void clear() {
+        for (Region region : this.regions.values()) {
+            region.close();
+        }
+        this.regions.clear();
+        this.source = null;
+        this.scannedSize = 0;
+    }
+
+    /**
+     * Releases the buffers and the vertex memory, when the client stops.
+     */
+    public void shutdown() {
+        clear();
+        if (this.allocator != null) {
+            this.allocator.close();
+            this.allocator = null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.pathtracker;
+
+import java.util.concurrent.CompletableFuture;
+
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.world.World;
+
+/**
+ * A load of the path data of one dimension running on the I/O thread.
+ *
+ * While the file is read, the positions loaded so far are published as
+ * read-only snapshots, so the overlay can already show them. Once the load is
+ * done, the caller takes ownership of the loaded stores. Anyone else only
+ * gets a snapshot of the positions and a copy of the visit counts, see
+ * {@link #joinSnapshot}, which stay the same while the owner changes the stores.
+ */
+public class PathLoad {
+    private final RegistryKey<World> dimension;
+    private final CompletableFuture<PositionStore> future = new CompletableFuture<>();
+    private volatile PositionStore progress = null;
+    // Set before the future completes, so joining makes it visible.
+    private VisitCountStore visitCounts;
+    private PositionStore snapshot;
+    private VisitCountStore visitCountsCopy;
+    // Name the damaged path files were moved to, null if they weren't damaged.
+    private String damagedCopy;
+
+    PathLoad(RegistryKey<World> dimension) {
+        this.dimension = dimension;
+    }
+
+    void publish(PositionStore snapshot) {
+        this.progress = snapshot;
+    }
+
+    void setDamagedCopy(String damagedCopy) {
+        this.damagedCopy = damagedCopy;
+    }
+
+    void complete(PositionStore positions, VisitCountStore visitCounts) {
+        this.visitCounts = visitCounts;
+        // Made on the I/O thread, before the owner can change the stores.
+        this.snapshot = positions.snapshot();
+        this.visitCountsCopy = visitCounts.copy();
+        this.future.complete(positions);
+    }
+
+    void fail(Throwable error) {
+        this.future.completeExceptionally(error);
+    }
+
+    public RegistryKey<World> getDimension() {
+        return this.dimension;
+    }
+
+    /**
+     * Returns the positions loaded so far, or null if none were read yet.
+     */
+    public PositionStore getProgress() {
+        return this.progress;
+    }
+
+    public boolean isDone() {
+        return this.future.isDone();
+    }
+
+    /**
+     * Waits for the load to finish and returns the loaded positions. Only for
+     * the owner, who may append to them.
+     */
+    public PositionStore join() {
+        return this.future.join();
+    }
+
+    /**
+     * Waits for the load to finish and returns the name the path files were
+     * moved to because they were damaged, or null if they weren't.
+     */
+    public String joinDamagedCopy() {
+        this.future.join();
+        return this.damagedCopy;
+    }
+
+    /**
+     * Waits for the load to finish and returns the loaded visit counts. Only
+     * for the owner, who may change them.
+     */
+    public VisitCountStore joinVisitCounts() {
+        this.future.join();
+        return this.visitCounts;
+    }
+
+    /**
+     * Waits for the load to finish and returns a read-only snapshot of the
+     * loaded positions, which can be read on any thread while the owner
+     * appends to them.
+     */
+    public PositionStore joinSnapshot() {
+        this.future.join();
+        return this.snapshot;
+    }
+
+    /**
+     * Waits for the load to finish and returns a copy of the loaded visit
+     * counts, which the owner's changes don't reach.
+     */
+    public VisitCountStore joinVisitCountsCopy() {
+        this.future.join();
+        return this.visitCountsCopy;
+    }
+}
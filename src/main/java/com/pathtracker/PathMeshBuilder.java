@@ -0,0 +1,282 @@
+package com.pathtracker;
+
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+
+import net.minecraft.client.render.BufferBuilder;
+import net.minecraft.client.render.BuiltBuffer;
+import net.minecraft.client.render.VertexFormat;
+import net.minecraft.client.render.VertexFormats;
+import net.minecraft.client.util.BufferAllocator;
+
+/**
+ * Builds the geometry of one section of the path overlay on a worker thread:
+ * the smoothed center lines of a set of spans, and the vertices extruded from
+ * them. No GL calls are made here; the finished vertex data is handed back
+ * to the render thread through a queue, which uploads it.
+ *
+ * A builder only reads data that doesn't change anymore once it is created:
+ * a snapshot of the positions, the segment starts found so far (entries are
+ * only ever appended) and immutable settings.
+ */
+@Environment(EnvType.CLIENT)
+class PathMeshBuilder implements Runnable {
+    // Subdivisions are divided by 2^shift at each level of detail.
+    static final int[] LOD_SUBDIVISION_SHIFTS = {0, 2, 3};
+
+    /**
+     * The settings the center lines depend on.
+     */
+    static final class Shape {
+        final PathStorageSessions.Modes mode;
+        final int subdivisions;
+        final int groupSize;
+        // Catmull–Rom weights for the subdivisions of each level of detail.
+        final double[][] basis = new double[PathCenterLines.LOD_STRIDES.length][];
+
+        Shape(PathStorageSessions.Modes mode, int subdivisions, int groupSize) {
+            this.mode = mode;
+            this.subdivisions = subdivisions;
+            this.groupSize = groupSize;
+            for (int level = 0; level < PathCenterLines.LOD_STRIDES.length; level++) {
+                this.basis[level] = PathGeometry.catmullRomBasis(Math.max(1, subdivisions >> LOD_SUBDIVISION_SHIFTS[level]));
+            }
+        }
+
+        int stepLength() {
+            return this.mode == PathStorageSessions.Modes.GROUPED ? this.groupSize : 1;
+        }
+
+        boolean matches(PathStorageSessions settings) {
+            return this.mode == settings.getMode()
+                && this.subdivisions == settings.getSubdivisions()
+                && this.groupSize == settings.getGroupSize();
+        }
+    }
+
+    /**
+     * The settings that only affect how the center lines are extruded.
+     */
+    static final class Appearance {
+        final float thickness;
+        final float red, green, blue, alpha;
+
+        Appearance(float thickness, float red, float green, float blue, float alpha) {
+            this.thickness = thickness;
+            this.red = red;
+            this.green = green;
+            this.blue = blue;
+            this.alpha = alpha;
+        }
+
+        boolean matches(PathStorageSessions settings, float red, float green, float blue) {
+            return this.thickness == settings.getThickness()
+                && this.alpha == settings.getTransparency()
+                && this.red == red && this.green == green && this.blue == blue;
+        }
+    }
+
+    // What to build.
+    final int generation;
+    final long regionKey;
+    final int level;
+    final int sealedUpTo;
+    final int builtCount;
+    private final PositionStore positions;
+    private final int[] segmentStarts;
+    private final int segmentCount;
+    // Start indices of the spans to build, or null to only extrude the given lines.
+    private final int[] spans;
+    private final Shape shape;
+    final Appearance appearance;
+    private final BufferAllocator allocator;
+    // Pool large regions are split across, null to build them sequentially.
+    private final ForkJoinPool pool;
+    private final Queue<PathMeshBuilder> finished;
+
+    // The result, read by the render thread once the builder is in the finished queue.
+    PathCenterLines lines;
+    BuiltBuffer built;
+    int vertexCount = 0;
+    double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, minZ = Double.MAX_VALUE;
+    double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE, maxZ = -Double.MAX_VALUE;
+    Throwable error;
+
+    /**
+     * Creates a builder for the given spans of a region (or the tail), at the
+     * given level of detail. builtCount is the number of bucket entries the
+     * spans stand for.
+     */
+    PathMeshBuilder(int generation, long regionKey, int level, PositionStore positions, int[] segmentStarts, int segmentCount,
+                    int sealedUpTo, int[] spans, int builtCount, Shape shape, Appearance appearance,
+                    BufferAllocator allocator, ForkJoinPool pool, Queue<PathMeshBuilder> finished) {
+        this.generation = generation;
+        this.regionKey = regionKey;
+        this.level = level;
+        this.positions = positions;
+        this.segmentStarts = segmentStarts;
+        this.segmentCount = segmentCount;
+        this.sealedUpTo = sealedUpTo;
+        this.spans = spans;
+        this.builtCount = builtCount;
+        this.shape = shape;
+        this.appearance = appearance;
+        this.allocator = allocator;
+        this.pool = pool;
+        this.finished = finished;
+    }
+
+    /**
+     * Creates a builder that only extrudes already built center lines again,
+     * with a new appearance.
+     */
+    PathMeshBuilder(int generation, long regionKey, int level, int sealedUpTo, int builtCount, PathCenterLines lines,
+                    Appearance appearance, BufferAllocator allocator, Queue<PathMeshBuilder> finished) {
+        this(generation, regionKey, level, null, null, 0, sealedUpTo, null, builtCount, null, appearance, allocator, null, finished);
+        this.lines = lines;
+    }
+
+    BufferAllocator getAllocator() {
+        return this.allocator;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (this.spans != null) {
+                // Large regions are split across the pool.
+                this.lines = PathCenterLines.build(this.pool, this.positions, this.segmentStarts, this.segmentCount,
+                    this.sealedUpTo, this.spans, this.shape.stepLength(), this.level, this.regionKey, this.shape.basis[this.level]);
+            }
+            extrude();
+        } catch (Throwable e) {
+            this.error = e;
+        }
+        this.finished.add(this);
+    }
+
+    /**
+     * Extrudes the center lines with the appearance into the allocator's memory.
+     */
+    private void extrude() {
+        BufferBuilder buffer = new BufferBuilder(this.allocator, VertexFormat.DrawMode.QUADS, VertexFormats.POSITION_COLOR);
+        PathCenterLines lines = this.lines;
+        for (int line = 0; line < lines.lineCount; line++) {
+            int first = lines.lineStarts[line];
+            int end = lines.lineEnd(line);
+            if (end - first == 1) {
+                emitCube(first, buffer);
+            } else {
+                emitRibbon(first, end, buffer);
+            }
+        }
+        this.built = buffer.endNullable();
+    }
+
+    /**
+     * Builds a ribbon along the center line points [first, end), as two
+     * quads crossing along each step: one horizontal and one upright. It can't
+     * face the camera, since the geometry is reused across frames, but the
+     * cross is seen from the side as well as from above.
+     */
+    private void emitRibbon(int first, int end, BufferBuilder buffer) {
+        float[] points = this.lines.points;
+        float thickness = this.appearance.thickness;
+        float alpha = this.appearance.alpha;
+        for (int j = first; j + 1 < end; j++) {
+            float x0 = points[j * 3], y0 = points[j * 3 + 1], z0 = points[j * 3 + 2];
+            float x1 = points[j * 3 + 3], y1 = points[j * 3 + 4], z1 = points[j * 3 + 5];
+            float tx = x1 - x0, ty = y1 - y0, tz = z1 - z0;
+            float length = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+            if (length < 1.0E-4f) {
+                continue;
+            }
+            tx /= length;
+            ty /= length;
+            tz /= length;
+            // tangent × up, or tangent × east for vertical steps.
+            float px = -tz, py = 0.0f, pz = tx;
+            if (px * px + pz * pz < 1.0E-6f) {
+                px = 0.0f;
+                py = tz;
+                pz = -ty;
+            }
+            float scale = thickness / (float) Math.sqrt(px * px + py * py + pz * pz);
+            px *= scale;
+            py *= scale;
+            pz *= scale;
+            // tangent × p, as long as p since both are perpendicular.
+            float qx = ty * pz - tz * py, qy = tz * px - tx * pz, qz = tx * py - ty * px;
+            vertex(buffer, x0 - px, y0 - py, z0 - pz, alpha);
+            vertex(buffer, x0 + px, y0 + py, z0 + pz, alpha);
+            vertex(buffer, x1 + px, y1 + py, z1 + pz, alpha);
+            vertex(buffer, x1 - px, y1 - py, z1 - pz, alpha);
+            vertex(buffer, x0 - qx, y0 - qy, z0 - qz, alpha);
+            vertex(buffer, x0 + qx, y0 + qy, z0 + qz, alpha);
+            vertex(buffer, x1 + qx, y1 + qy, z1 + qz, alpha);
+            vertex(buffer, x1 - qx, y1 - qy, z1 - qz, alpha);
+        }
+    }
+
+    private void emitCube(int point, BufferBuilder buffer) {
+        float[] points = this.lines.points;
+        // Define cube size and offset to center the cube within the block
+        float halfSize = 0.3f;
+        float xMin = points[point * 3] - halfSize;
+        float xMax = points[point * 3] + halfSize;
+        float yMin = points[point * 3 + 1] - halfSize;
+        float yMax = points[point * 3 + 1] + halfSize;
+        float zMin = points[point * 3 + 2] - halfSize;
+        float zMax = points[point * 3 + 2] + halfSize;
+        float cubeAlpha = this.appearance.alpha / 2.0f;
+        // FRONT FACE
+        vertex(buffer, xMin, yMin, zMax, cubeAlpha);
+        vertex(buffer, xMax, yMin, zMax, cubeAlpha);
+        vertex(buffer, xMax, yMax, zMax, cubeAlpha);
+        vertex(buffer, xMin, yMax, zMax, cubeAlpha);
+        vertex(buffer, xMax, yMin, zMin, cubeAlpha);
+        vertex(buffer, xMin, yMin, zMin, cubeAlpha);
+        vertex(buffer, xMin, yMax, zMin, cubeAlpha);
+        vertex(buffer, xMax, yMax, zMin, cubeAlpha);
+        // LEFT FACE
+        vertex(buffer, xMin, yMin, zMin, cubeAlpha);
+        vertex(buffer, xMin, yMin, zMax, cubeAlpha);
+        vertex(buffer, xMin, yMax, zMax, cubeAlpha);
+        vertex(buffer, xMin, yMax, zMin, cubeAlpha);
+        // RIGHT FACE
+        vertex(buffer, xMax, yMin, zMax, cubeAlpha);
+        vertex(buffer, xMax, yMin, zMin, cubeAlpha);
+        vertex(buffer, xMax, yMax, zMin, cubeAlpha);
+        vertex(buffer, xMax, yMax, zMax, cubeAlpha);
+        // BOTTOM FACE
+        vertex(buffer, xMin, yMin, zMin, cubeAlpha);
+        vertex(buffer, xMax, yMin, zMin, cubeAlpha);
+        vertex(buffer, xMax, yMin, zMax, cubeAlpha);
+        vertex(buffer, xMin, yMin, zMax, cubeAlpha);
+        // TOP FACE
+        vertex(buffer, xMin, yMax, zMax, cubeAlpha);
+        vertex(buffer, xMax, yMax, zMax, cubeAlpha);
+        vertex(buffer, xMax, yMax, zMin, cubeAlpha);
+        vertex(buffer, xMin, yMax, zMin, cubeAlpha);
+    }
+
+    /**
+     * Writes a vertex given relative to the origin of the lines.
+     */
+    private void vertex(BufferBuilder buffer, float x, float y, float z, float alpha) {
+        double worldX = this.lines.originX + x;
+        double worldY = this.lines.originY + y;
+        double worldZ = this.lines.originZ + z;
+        this.minX = Math.min(this.minX, worldX);
+        this.minY = Math.min(this.minY, worldY);
+        this.minZ = Math.min(this.minZ, worldZ);
+        this.maxX = Math.max(this.maxX, worldX);
+        this.maxY = Math.max(this.maxY, worldY);
+        this.maxZ = Math.max(this.maxZ, worldZ);
+        this.vertexCount++;
+        buffer.vertex(x, y, z).color(this.appearance.red, this.appearance.green, this.appearance.blue, alpha);
+    }
+}
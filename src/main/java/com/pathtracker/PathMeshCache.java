@@ -0,0 +1,813 @@
+package com.pathtracker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.joml.Matrix4f;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import net.fabricmc.api.EnvType;
+import net.fabricmc.api.Environment;
+
+import net.minecraft.client.gl.GlUsage;
+import net.minecraft.client.gl.ShaderProgram;
+import net.minecraft.client.gl.VertexBuffer;
+import net.minecraft.client.render.Frustum;
+import net.minecraft.client.util.BufferAllocator;
+import net.minecraft.client.util.math.MatrixStack;
+import net.minecraft.util.math.Box;
+import net.minecraft.util.math.Vec3d;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+
+/**
+ * Keeps the tessellated path overlay in persistent vertex buffers, so the
+ * geometry is only rebuilt when the path data or the render settings change.
+ *
+ * The path is split into spans (one per block step, or per group step in
+ * GROUPED mode). Once a span can no longer change, it is sealed into the
+ * section of the region its first point lies in (see {@link PathSpatialIndex}).
+ * Only the last few points, whose spline shape still depends on positions that
+ * have not been tracked yet, live in a small tail section that is rebuilt
+ * whenever a new position is appended.
+ *
+ * Regions away from the camera are drawn at a coarser level of detail: spans
+ * cover several steps and curves use fewer subdivisions. All levels pass
+ * through the same block (or group) centers, so neighbouring regions drawn at
+ * different levels still connect, and the change of level is barely visible.
+ * Each level is built the first time it is needed and then kept.
+ *
+ * Sections are built by {@link PathMeshBuilder}s on worker threads, nearest
+ * first; the render thread only uploads finished sections and draws. A
+ * section keeps drawing its previous geometry until the new one is uploaded,
+ * so a half-built section is never drawn and a frame never waits for a
+ * build. Uploads are limited to a budget of vertices per frame.
+ *
+ * Sealing moves spans from the tail into the regions. The regions receiving
+ * them and the shortened tail are built together and swapped in at once, so
+ * no span is ever drawn twice or missing at the seam.
+ *
+ * Sections keep the smoothed center lines of their spans. Changing the
+ * thickness or the color only extrudes those lines again; the splines are
+ * only recomputed when the mode, subdivisions or group size change.
+ */
+@Environment(EnvType.CLIENT)
+public class PathMeshCache {
+    // Number of final points the tail collects before they are sealed.
+    private static final int SEAL_BATCH_POINTS = 64;
+    // Horizontal distance from the camera to a region at which the next coarser level starts.
+    private static final int[] LOD_DISTANCES = {64, 160};
+    // A region has to move this far past a level boundary before its level
+    // changes, so it doesn't flip back and forth while the camera is near it.
+    private static final int LOD_HYSTERESIS = 16;
+    // Regions queued on the workers at most, so the nearest ones are picked
+    // again each frame as the camera moves.
+    private static final int MAX_JOBS_IN_FLIGHT = 8;
+    // Initial size of a builder's vertex memory, it grows as needed.
+    private static final int ALLOCATOR_SIZE = 1 << 18;
+
+    /**
+     * A block of uploaded geometry, and the center lines it was extruded from.
+     * Vertices and center line points are stored relative to the origin so that
+     * float precision holds up far away from the world center.
+     */
+    private static class Section {
+        VertexBuffer buffer;
+        // Number of bucket entries the section was built from.
+        final int builtCount;
+        // Appearance the buffer was extruded with.
+        final PathMeshBuilder.Appearance appearance;
+        final PathCenterLines lines;
+        final int vertexCount;
+        final double minX, minY, minZ;
+        final double maxX, maxY, maxZ;
+        // The bounds as a box for the frustum test, so none is allocated per frame.
+        final Box bounds;
+
+        Section(PathMeshBuilder builder) {
+            this.builtCount = builder.builtCount;
+            this.appearance = builder.appearance;
+            this.lines = builder.lines;
+            this.vertexCount = builder.vertexCount;
+            this.minX = builder.minX;
+            this.minY = builder.minY;
+            this.minZ = builder.minZ;
+            this.maxX = builder.maxX;
+            this.maxY = builder.maxY;
+            this.maxZ = builder.maxZ;
+            this.bounds = new Box(this.minX, this.minY, this.minZ, this.maxX, this.maxY, this.maxZ);
+        }
+
+        boolean intersects(Vec3d camPos, int renderDistance) {
+            return maxX >= camPos.x - renderDistance && minX <= camPos.x + renderDistance
+                && maxY >= camPos.y - renderDistance && minY <= camPos.y + renderDistance
+                && maxZ >= camPos.z - renderDistance && minZ <= camPos.z + renderDistance;
+        }
+
+        boolean isVisible(Frustum frustum) {
+            return frustum == null || frustum.isVisible(this.bounds);
+        }
+
+        /**
+         * Returns the estimated heap bytes of the center lines.
+         */
+        long estimatedBytes() {
+            return 64 + lines.points.length * 4L + lines.lineStarts.length * 4L;
+        }
+
+        void close() {
+            if (buffer != null) {
+                buffer.close();
+                buffer = null;
+            }
+        }
+    }
+
+    /**
+     * The sealed geometry of a region of the spatial index, one section per
+     * level of detail.
+     */
+    private static class Region {
+        final Section[] levels = new Section[PathCenterLines.LOD_STRIDES.length];
+        // Levels a builder is running for.
+        final boolean[] building = new boolean[PathCenterLines.LOD_STRIDES.length];
+        // Level the region was drawn at last, or -1.
+        int level = -1;
+        // Box tested against the frustum, and the heights and margin it was made for.
+        Box bounds;
+        int boundsMinY, boundsMaxY;
+        double boundsMargin;
+
+        void close() {
+            for (Section section : levels) {
+                if (section != null) {
+                    section.close();
+                }
+            }
+        }
+    }
+
+    private final Long2ObjectOpenHashMap<Region> regions = new Long2ObjectOpenHashMap<>();
+    private Section tail = null;
+    // The list the cached geometry was built from, and how much of it was seen.
+    private PositionStore source = null;
+    // Snapshot of the list handed to the builders.
+    private PositionStore snapshot = null;
+    // Size of the list the tail was (or is being) built for.
+    private int tailBuiltSize = -1;
+    // Spans starting before this index belong to the sealed region sections.
+    private int sealedUpTo = 0;
+    // Indices at which a new segment starts (the next block isn't a neighbor).
+    // Builders read the entries below the count they were given, which never change.
+    private int[] segmentStarts = new int[16];
+    private int segmentCount = 0;
+    private int scannedSize = 0;
+
+    // Settings the cached geometry was built with.
+    private PathMeshBuilder.Shape shape;
+    private PathMeshBuilder.Appearance appearance;
+
+    private static final int WORKER_COUNT = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    // Builders run on the workers, and are handed back through the finished queue.
+    private final ExecutorService workers = Executors.newFixedThreadPool(WORKER_COUNT, runnable -> {
+        Thread thread = new Thread(runnable, "PathTracker-Mesh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Splits large regions for the workers. Sized like them, so builds don't fill the common pool the game and other mods share.
+    private final ForkJoinPool partPool = new ForkJoinPool(WORKER_COUNT, pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("PathTracker-MeshParts-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+    private final Queue<PathMeshBuilder> finished = new ConcurrentLinkedQueue<>();
+    // Vertex memory of finished builders, reused by the next ones.
+    private final ArrayDeque<BufferAllocator> allocators = new ArrayDeque<>();
+    private int jobsInFlight = 0;
+    // Bumped by clear(), builders started before are thrown away.
+    private int generation = 0;
+    // The tail builder running outside of a seal batch, or null.
+    private PathMeshBuilder tailJob = null;
+    // The seal batch being built: the index spans are sealed up to once it is
+    // done, its builders, and those finished so far.
+    private int sealingUpTo = -1;
+    private PathMeshBuilder sealTailJob = null;
+    private int sealJobCount = 0;
+    private final List<PathMeshBuilder> sealResults = new ArrayList<>();
+
+    // View frustum of the frame being drawn, or null to draw everything in range.
+    private Frustum frustum;
+
+    // Vertices that may still be uploaded in the frame being drawn.
+    private int buildBudgetLeft;
+    // What the last frame drew and uploaded, for the stats.
+    private int drawnVertices = 0;
+    private int drawnSections = 0;
+    private int uploadedVertices = 0;
+    // Regions in range that need to be built, with their distance to the camera.
+    private long[] pendingKeys = new long[64];
+    private double[] pendingDistances = new double[64];
+    private int pendingCount = 0;
+
+    // Reused every frame to avoid allocating a matrix per section.
+    private final Matrix4f viewMatrix = new Matrix4f();
+    private final Matrix4f sectionMatrix = new Matrix4f();
+
+    /**
+     * Draws the cached path of the given dimension, updating the cache first if
+     * the path grew or the settings changed. Only regions of the spatial index
+     * that overlap the render distance box and the view frustum are visited and
+     * built. Expects the shader and render state to be set up already.
+     */
+    public void render(MatrixStack matrixStack, Frustum frustum, Vec3d camPos, PositionStore visited, PathSpatialIndex index,
+                       PathStorageSessions settings, float red, float green, float blue) {
+        this.frustum = frustum;
+        this.buildBudgetLeft = settings.getBuildBudget();
+        this.drawnVertices = 0;
+        this.drawnSections = 0;
+        this.uploadedVertices = 0;
+        if (visited.lineage() != this.source || visited.size() < this.scannedSize
+                || this.shape == null || !this.shape.matches(settings)) {
+            clear();
+            this.source = visited.lineage();
+            this.shape = new PathMeshBuilder.Shape(settings.getMode(), settings.getSubdivisions(), settings.getGroupSize());
+        }
+        if (this.appearance == null || !this.appearance.matches(settings, red, green, blue)) {
+            this.appearance = new PathMeshBuilder.Appearance(settings.getThickness(), red, green, blue, settings.getTransparency());
+        }
+        uploadFinished(index);
+        update(visited, index, camPos);
+
+        ShaderProgram shader = RenderSystem.getShader();
+        Matrix4f projectionMatrix = RenderSystem.getProjectionMatrix();
+        this.viewMatrix.set(RenderSystem.getModelViewMatrix()).mul(matrixStack.peek().getPositionMatrix());
+        int renderDistance = settings.getRenderDistance();
+        int minRegionX = ((int) Math.floor(camPos.x) - renderDistance) >> PathSpatialIndex.REGION_SHIFT;
+        int maxRegionX = ((int) Math.floor(camPos.x) + renderDistance) >> PathSpatialIndex.REGION_SHIFT;
+        int minRegionZ = ((int) Math.floor(camPos.z) - renderDistance) >> PathSpatialIndex.REGION_SHIFT;
+        int maxRegionZ = ((int) Math.floor(camPos.z) + renderDistance) >> PathSpatialIndex.REGION_SHIFT;
+        long cells = (long) (maxRegionX - minRegionX + 1) * (maxRegionZ - minRegionZ + 1);
+        if (cells <= index.getRegionCount()) {
+            // Few cells in range: look each of them up.
+            for (int regionX = minRegionX; regionX <= maxRegionX; regionX++) {
+                for (int regionZ = minRegionZ; regionZ <= maxRegionZ; regionZ++) {
+                    long key = PathSpatialIndex.regionKey(regionX, regionZ);
+                    PathSpatialIndex.Bucket bucket = index.getBucket(key);
+                    if (bucket != null) {
+                        drawRegion(key, bucket, camPos, renderDistance, projectionMatrix, shader);
+                    }
+                }
+            }
+        } else {
+            // Fewer regions than cells in range: test each region instead.
+            for (Long2ObjectMap.Entry<PathSpatialIndex.Bucket> entry : index.regions()) {
+                long key = entry.getLongKey();
+                int regionX = PathSpatialIndex.regionX(key);
+                int regionZ = PathSpatialIndex.regionZ(key);
+                if (regionX >= minRegionX && regionX <= maxRegionX && regionZ >= minRegionZ && regionZ <= maxRegionZ) {
+                    drawRegion(key, entry.getValue(), camPos, renderDistance, projectionMatrix, shader);
+                }
+            }
+        }
+        submitPendingRegions(index);
+        if (this.tail != null) {
+            drawSection(this.tail, camPos, renderDistance, projectionMatrix, shader);
+        }
+        VertexBuffer.unbind();
+        this.frustum = null;
+    }
+
+    /**
+     * Releases all GPU buffers and cached center lines. The next call to render
+     * rebuilds everything. Builders still running are discarded when they finish.
+     */
+    public void clear() {
+        for (Region region : this.regions.values()) {
+            region.close();
+        }
+        this.regions.clear();
+        if (this.tail != null) {
+            this.tail.close();
+            this.tail = null;
+        }
+        this.generation++;
+        this.tailJob = null;
+        this.sealingUpTo = -1;
+        this.sealTailJob = null;
+        this.sealJobCount = 0;
+        for (PathMeshBuilder builder : this.sealResults) {
+            release(builder);
+        }
+        this.sealResults.clear();
+        this.source = null;
+        this.snapshot = null;
+        this.tailBuiltSize = -1;
+        this.sealedUpTo = 0;
+        // Running builders may still read the old array.
+        this.segmentStarts = new int[16];
+        this.segmentCount = 0;
+        this.scannedSize = 0;
+    }
+
+    /**
+     * Stops the workers and releases everything. Called when the client stops.
+     */
+    public void shutdown() {
+        this.workers.shutdownNow();
+        this.partPool.shutdownNow();
+        clear();
+        for (BufferAllocator allocator : this.allocators) {
+            allocator.close();
+        }
+        this.allocators.clear();
+    }
+
+    public int getDrawnVertices() {
+        return this.drawnVertices;
+    }
+
+    public int getDrawnSections() {
+        return this.drawnSections;
+    }
+
+    public int getUploadedVertices() {
+        return this.uploadedVertices;
+    }
+
+    public int getSegmentCount() {
+        return this.segmentCount;
+    }
+
+    /**
+     * Returns the estimated heap bytes of the cached center lines.
+     */
+    public long estimatedBytes() {
+        long bytes = this.segmentStarts.length * 4L;
+        for (Region region : this.regions.values()) {
+            for (Section section : region.levels) {
+                if (section != null) {
+                    bytes += section.estimatedBytes();
+                }
+            }
+        }
+        if (this.tail != null) {
+            bytes += this.tail.estimatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the vertices held in GPU buffers.
+     */
+    public long getBufferedVertices() {
+        long vertices = 0;
+        for (Region region : this.regions.values()) {
+            for (Section section : region.levels) {
+                if (section != null && section.buffer != null) {
+                    vertices += section.vertexCount;
+                }
+            }
+        }
+        if (this.tail != null && this.tail.buffer != null) {
+            vertices += this.tail.vertexCount;
+        }
+        return vertices;
+    }
+
+    /**
+     * Draws the sealed section of a region at the level of detail for its
+     * distance if it is up to date. Otherwise whatever the region still has is
+     * drawn, and the region is queued to be built, see
+     * {@link #submitPendingRegions}. Regions are only built once they come
+     * into range.
+     */
+    private void drawRegion(long key, PathSpatialIndex.Bucket bucket, Vec3d camPos,
+                            int renderDistance, Matrix4f projectionMatrix, ShaderProgram shader) {
+        int sealedCount = bucket.countBelow(this.sealedUpTo);
+        if (sealedCount == 0) {
+            return;
+        }
+        Region region = this.regions.get(key);
+        if (region == null) {
+            region = new Region();
+            this.regions.put(key, region);
+        }
+        if (!regionVisible(key, region, bucket)) {
+            return;
+        }
+        double distance = regionDistance(key, camPos);
+        int level = selectLevel(region, distance);
+        Section section = region.levels[level];
+        if (section != null && section.builtCount == sealedCount && section.appearance == this.appearance) {
+            drawSection(section, camPos, renderDistance, projectionMatrix, shader);
+            return;
+        }
+        section = fallback(region);
+        if (section != null) {
+            drawSection(section, camPos, renderDistance, projectionMatrix, shader);
+        }
+        if (region.building[level]) {
+            return;
+        }
+        if (this.pendingCount == this.pendingKeys.length) {
+            this.pendingKeys = Arrays.copyOf(this.pendingKeys, this.pendingCount * 2);
+            this.pendingDistances = Arrays.copyOf(this.pendingDistances, this.pendingCount * 2);
+        }
+        this.pendingKeys[this.pendingCount] = key;
+        this.pendingDistances[this.pendingCount] = distance;
+        this.pendingCount++;
+    }
+
+    /**
+     * Starts builders for the queued regions nearest first, as long as the
+     * workers aren't busy. Regions left over are found again next frame.
+     */
+    private void submitPendingRegions(PathSpatialIndex index) {
+        while (this.pendingCount > 0 && this.jobsInFlight < MAX_JOBS_IN_FLIGHT) {
+            int nearest = 0;
+            for (int i = 1; i < this.pendingCount; i++) {
+                if (this.pendingDistances[i] < this.pendingDistances[nearest]) {
+                    nearest = i;
+                }
+            }
+            long key = this.pendingKeys[nearest];
+            this.pendingCount--;
+            this.pendingKeys[nearest] = this.pendingKeys[this.pendingCount];
+            this.pendingDistances[nearest] = this.pendingDistances[this.pendingCount];
+
+            Region region = this.regions.get(key);
+            Section section = region.levels[region.level];
+            int sealedCount = index.getBucket(key).countBelow(this.sealedUpTo);
+            PathMeshBuilder builder;
+            if (section != null && section.builtCount == sealedCount) {
+                // Only the appearance changed, the center lines can be extruded again.
+                builder = new PathMeshBuilder(this.generation, key, region.level, this.sealedUpTo, sealedCount,
+                    section.lines, this.appearance, takeAllocator(), this.finished);
+            } else {
+                builder = regionBuilder(key, region.level, index, this.sealedUpTo);
+            }
+            region.building[region.level] = true;
+            submit(builder);
+        }
+        this.pendingCount = 0;
+    }
+
+    /**
+     * Returns a builder for the spans of a region sealed below the given index.
+     */
+    private PathMeshBuilder regionBuilder(long key, int level, PathSpatialIndex index, int sealedUpTo) {
+        PathSpatialIndex.Bucket bucket = index.getBucket(key);
+        int sealedCount = bucket.countBelow(sealedUpTo);
+        return new PathMeshBuilder(this.generation, key, level, this.snapshot, this.segmentStarts, this.segmentCount,
+            sealedUpTo, bucket.copyIndices(sealedCount), sealedCount, this.shape, this.appearance, takeAllocator(), this.partPool, this.finished);
+    }
+
+    /**
+     * Returns a builder for the tail spans [from, to).
+     */
+    private PathMeshBuilder tailBuilder(int from, int to) {
+        int[] spans = new int[to - from];
+        for (int i = 0; i < spans.length; i++) {
+            spans[i] = from + i;
+        }
+        // The tail is around the player, so it's always built at full detail.
+        return new PathMeshBuilder(this.generation, 0L, 0, this.snapshot, this.segmentStarts, this.segmentCount,
+            from, spans, to, this.shape, this.appearance, takeAllocator(), this.partPool, this.finished);
+    }
+
+    private void submit(PathMeshBuilder builder) {
+        this.jobsInFlight++;
+        this.workers.execute(builder);
+    }
+
+    private BufferAllocator takeAllocator() {
+        BufferAllocator allocator = this.allocators.poll();
+        return allocator != null ? allocator : new BufferAllocator(ALLOCATOR_SIZE);
+    }
+
+    /**
+     * Discards the result of a builder and keeps its vertex memory for the next one.
+     */
+    private void release(PathMeshBuilder builder) {
+        if (builder.built != null) {
+            builder.built.close();
+            builder.built = null;
+        }
+        if (this.allocators.size() < MAX_JOBS_IN_FLIGHT + 2) {
+            this.allocators.add(builder.getAllocator());
+        } else {
+            builder.getAllocator().close();
+        }
+    }
+
+    /**
+     * Uploads the sections the workers finished, within the vertex budget of
+     * the frame. Seal batches and the tail are small and always uploaded, the
+     * rest waits in the queue for the next frame.
+     */
+    private void uploadFinished(PathSpatialIndex index) {
+        PathMeshBuilder builder;
+        while ((builder = this.finished.peek()) != null) {
+            boolean current = builder.generation == this.generation;
+            boolean regionBuild = current && builder != this.tailJob && builder != this.sealTailJob
+                && builder.sealedUpTo == this.sealedUpTo;
+            if (regionBuild && this.buildBudgetLeft <= 0) {
+                break;
+            }
+            this.finished.poll();
+            this.jobsInFlight--;
+            if (builder.error != null) {
+                System.out.println("[PathTracker] Failed to build path geometry.");
+                builder.error.printStackTrace();
+            }
+            if (!current) {
+                release(builder);
+            } else if (this.sealingUpTo >= 0 && (builder == this.sealTailJob || builder.sealedUpTo == this.sealingUpTo)) {
+                this.sealResults.add(builder);
+                if (this.sealResults.size() == this.sealJobCount) {
+                    installSealBatch();
+                }
+            } else if (builder == this.tailJob) {
+                this.tailJob = null;
+                if (builder.sealedUpTo == this.sealedUpTo && builder.error == null) {
+                    installTail(builder);
+                } else {
+                    // Built from before the last seal batch, build it again.
+                    this.tailBuiltSize = -1;
+                    release(builder);
+                }
+            } else {
+                Region region = this.regions.get(builder.regionKey);
+                if (region != null) {
+                    region.building[builder.level] = false;
+                }
+                if (regionBuild && region != null && builder.error == null) {
+                    this.buildBudgetLeft -= builder.vertexCount;
+                    installRegion(region, builder);
+                } else {
+                    release(builder);
+                }
+            }
+        }
+    }
+
+    /**
+     * Swaps in the sections of a finished seal batch all at once, and moves
+     * the seam between the regions and the tail.
+     */
+    private void installSealBatch() {
+        boolean failed = false;
+        for (PathMeshBuilder builder : this.sealResults) {
+            failed |= builder.error != null;
+        }
+        for (PathMeshBuilder builder : this.sealResults) {
+            Region region = this.regions.get(builder.regionKey);
+            if (failed) {
+                release(builder);
+            } else if (builder == this.sealTailJob) {
+                installTail(builder);
+            } else {
+                installRegion(region, builder);
+            }
+        }
+        if (failed) {
+            // Try again on the next update.
+            this.tailBuiltSize = -1;
+        } else {
+            this.sealedUpTo = this.sealingUpTo;
+        }
+        this.sealResults.clear();
+        this.sealingUpTo = -1;
+        this.sealTailJob = null;
+        this.sealJobCount = 0;
+    }
+
+    private void installRegion(Region region, PathMeshBuilder builder) {
+        Section section = upload(builder);
+        // Once new spans are sealed, every level built before is out of date.
+        for (int i = 0; i < region.levels.length; i++) {
+            if (region.levels[i] != null && (i == builder.level || region.levels[i].builtCount != section.builtCount)) {
+                region.levels[i].close();
+                region.levels[i] = null;
+            }
+        }
+        region.levels[builder.level] = section;
+    }
+
+    private void installTail(PathMeshBuilder builder) {
+        if (this.tail != null) {
+            this.tail.close();
+        }
+        this.tail = upload(builder);
+    }
+
+    /**
+     * Uploads the vertices of a finished builder into a new section. Must be
+     * called on the render thread.
+     */
+    private Section upload(PathMeshBuilder builder) {
+        Section section = new Section(builder);
+        this.uploadedVertices += builder.vertexCount;
+        if (builder.built != null) {
+            section.buffer = new VertexBuffer(GlUsage.STATIC_WRITE);
+            section.buffer.bind();
+            // Uploading closes the built buffer.
+            section.buffer.upload(builder.built);
+            builder.built = null;
+            VertexBuffer.unbind();
+        }
+        release(builder);
+        return section;
+    }
+
+    /**
+     * Returns the section of the region to draw until its current level is
+     * built: the current level as last built, or else any other level.
+     */
+    private static Section fallback(Region region) {
+        Section section = region.levels[region.level];
+        if (section != null && section.buffer != null) {
+            return section;
+        }
+        for (Section other : region.levels) {
+            if (other != null && other.buffer != null) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tests the column of a region, limited to the heights of its positions,
+     * against the view frustum. Spans can reach a step past the region and
+     * curve a little beyond their control points, so the box is widened by
+     * two steps. The box is kept in the region until the heights or the
+     * margin change.
+     */
+    private boolean regionVisible(long key, Region region, PathSpatialIndex.Bucket bucket) {
+        if (this.frustum == null) {
+            return true;
+        }
+        double margin = 2.0 * this.shape.stepLength() + 1.0;
+        if (region.bounds == null || region.boundsMinY != bucket.getMinY() || region.boundsMaxY != bucket.getMaxY()
+                || region.boundsMargin != margin) {
+            double minX = PathSpatialIndex.regionX(key) << PathSpatialIndex.REGION_SHIFT;
+            double minZ = PathSpatialIndex.regionZ(key) << PathSpatialIndex.REGION_SHIFT;
+            region.bounds = new Box(
+                minX - margin, bucket.getMinY() - margin, minZ - margin,
+                minX + PathSpatialIndex.REGION_SIZE + margin, bucket.getMaxY() + 1 + margin, minZ + PathSpatialIndex.REGION_SIZE + margin);
+            region.boundsMinY = bucket.getMinY();
+            region.boundsMaxY = bucket.getMaxY();
+            region.boundsMargin = margin;
+        }
+        return this.frustum.isVisible(region.bounds);
+    }
+
+    /**
+     * Returns the horizontal distance between the camera and the region's column.
+     */
+    private static double regionDistance(long key, Vec3d camPos) {
+        double minX = PathSpatialIndex.regionX(key) << PathSpatialIndex.REGION_SHIFT;
+        double minZ = PathSpatialIndex.regionZ(key) << PathSpatialIndex.REGION_SHIFT;
+        double dx = Math.max(0.0, Math.max(minX - camPos.x, camPos.x - (minX + PathSpatialIndex.REGION_SIZE)));
+        double dz = Math.max(0.0, Math.max(minZ - camPos.z, camPos.z - (minZ + PathSpatialIndex.REGION_SIZE)));
+        return Math.sqrt(dx * dx + dz * dz);
+    }
+
+    /**
+     * Picks the level of detail of a region from its distance to the camera.
+     */
+    private static int selectLevel(Region region, double distance) {
+        int level = region.level;
+        if (level < 0) {
+            level = 0;
+            while (level < LOD_DISTANCES.length && distance >= LOD_DISTANCES[level]) {
+                level++;
+            }
+        } else {
+            while (level < LOD_DISTANCES.length && distance >= LOD_DISTANCES[level] + LOD_HYSTERESIS) {
+                level++;
+            }
+            while (level > 0 && distance < LOD_DISTANCES[level - 1] - LOD_HYSTERESIS) {
+                level--;
+            }
+        }
+        region.level = level;
+        return level;
+    }
+
+    private void drawSection(Section section, Vec3d camPos, int renderDistance, Matrix4f projectionMatrix, ShaderProgram shader) {
+        if (section.buffer == null || !section.intersects(camPos, renderDistance) || !section.isVisible(this.frustum)) {
+            return;
+        }
+        PathCenterLines lines = section.lines;
+        this.sectionMatrix.set(this.viewMatrix).translate(
+            (float) (lines.originX - camPos.x),
+            (float) (lines.originY - camPos.y),
+            (float) (lines.originZ - camPos.z));
+        section.buffer.bind();
+        section.buffer.draw(this.sectionMatrix, projectionMatrix, shader);
+        this.drawnVertices += section.vertexCount;
+        this.drawnSections++;
+    }
+
+    /**
+     * Brings the cache up to date with newly appended positions: starts a seal
+     * batch once enough spans became final, and rebuilds the tail if the list
+     * grew or the appearance changed.
+     */
+    private void update(PositionStore visited, PathSpatialIndex index, Vec3d camPos) {
+        int size = visited.size();
+        if (size == this.tailBuiltSize && (this.tail == null || this.tail.appearance == this.appearance)) {
+            return;
+        }
+        if (this.sealingUpTo >= 0 || this.tailJob != null) {
+            // Picked up again once the running builds are in.
+            return;
+        }
+        scanSegments(visited);
+        if (this.snapshot == null || this.snapshot.size() != size) {
+            this.snapshot = visited.snapshot();
+        }
+        // The shape of a span depends on a few following points (or groups), so
+        // only spans far enough from the end of the list are final.
+        int margin = this.shape.mode == PathStorageSessions.Modes.GROUPED ? 3 * this.shape.groupSize + 1 : 3;
+        int finalUpTo = size - margin;
+        if (finalUpTo - this.sealedUpTo >= SEAL_BATCH_POINTS) {
+            startSealBatch(finalUpTo, index, camPos);
+        } else if (this.sealedUpTo < size) {
+            this.tailJob = tailBuilder(this.sealedUpTo, size);
+            submit(this.tailJob);
+        }
+        this.tailBuiltSize = size;
+    }
+
+    /**
+     * Starts building the tail that is left after sealing the spans below
+     * upTo, together with the regions taking over the spans the current tail
+     * draws, as one batch. Other regions receiving spans are rebuilt when
+     * drawn next, as those spans weren't drawn before anyway.
+     */
+    private void startSealBatch(int upTo, PathSpatialIndex index, Vec3d camPos) {
+        this.sealingUpTo = upTo;
+        List<PathMeshBuilder> batch = new ArrayList<>();
+        int drawnUpTo = this.tail != null ? Math.min(upTo, this.tail.builtCount) : this.sealedUpTo;
+        long lastKey = 0L;
+        for (int i = this.sealedUpTo; i < drawnUpTo; i++) {
+            long key = PathSpatialIndex.regionKeyOf(this.snapshot, i);
+            if (i > this.sealedUpTo && key == lastKey) {
+                continue;
+            }
+            lastKey = key;
+            Region region = this.regions.get(key);
+            if (region == null) {
+                region = new Region();
+                selectLevel(region, regionDistance(key, camPos));
+                this.regions.put(key, region);
+            }
+            boolean queued = false;
+            for (PathMeshBuilder builder : batch) {
+                queued |= builder.regionKey == key;
+            }
+            if (!queued) {
+                batch.add(regionBuilder(key, region.level, index, upTo));
+            }
+        }
+        this.sealTailJob = tailBuilder(upTo, this.snapshot.size());
+        batch.add(this.sealTailJob);
+        this.sealJobCount = batch.size();
+        for (PathMeshBuilder builder : batch) {
+            submit(builder);
+        }
+    }
+
+    /**
+     * Records where new segments begin among the positions appended since the
+     * last scan.
+     */
+    private void scanSegments(PositionStore visited) {
+        int size = visited.size();
+        for (int i = this.scannedSize; i < size; i++) {
+            if (PathGeometry.startsSegment(visited, i)) {
+                if (this.segmentCount == this.segmentStarts.length) {
+                    int[] grown = new int[this.segmentStarts.length * 2];
+                    System.arraycopy(this.segmentStarts, 0, grown, 0, this.segmentCount);
+                    this.segmentStarts = grown;
+                }
+                this.segmentStarts[this.segmentCount++] = i;
+            }
+        }
+        this.scannedSize = size;
+    }
+}
@@ -0,0 +1,81 @@
+package com.pathtracker;
+
+import java.util.Arrays;
+
+/**
+ * Rolling statistics of the last frames the path overlay was rendered in.
+ * Recording a frame only writes into preallocated ring buffers, so it is
+ * cheap enough to stay on all the time.
+ */
+public class PathRenderStats {
+    // Number of frames the statistics cover.
+    private static final int FRAMES = 256;
+
+    private final long[] frameNanos = new long[FRAMES];
+    private final int[] frameVertices = new int[FRAMES];
+    private final int[] frameSections = new int[FRAMES];
+    private final int[] frameUploads = new int[FRAMES];
+    private int next = 0;
+    private int count = 0;
+    // Scratch space for the percentiles.
+    private final long[] sorted = new long[FRAMES];
+
+    /**
+     * Records a frame: how long rendering the overlay took, the vertices and
+     * sections drawn, and the vertices uploaded.
+     */
+    public void recordFrame(long nanos, int vertices, int sections, int uploadedVertices) {
+        this.frameNanos[this.next] = nanos;
+        this.frameVertices[this.next] = vertices;
+        this.frameSections[this.next] = sections;
+        this.frameUploads[this.next] = uploadedVertices;
+        this.next = (this.next + 1) % FRAMES;
+        this.count = Math.min(this.count + 1, FRAMES);
+    }
+
+    public int getFrameCount() {
+        return this.count;
+    }
+
+    /**
+     * Returns the render time at the given percentile (0 to 100) of the
+     * recorded frames, in nanoseconds.
+     */
+    public long percentileNanos(int percentile) {
+        if (this.count == 0) {
+            return 0;
+        }
+        System.arraycopy(this.frameNanos, 0, this.sorted, 0, this.count);
+        Arrays.sort(this.sorted, 0, this.count);
+        int rank = (int) Math.ceil(percentile / 100.0 * this.count) - 1;
+        return this.sorted[Math.max(0, Math.min(this.count - 1, rank))];
+    }
+
+    public int averageVertices() {
+        return average(this.frameVertices);
+    }
+
+    public int averageSections() {
+        return average(this.frameSections);
+    }
+
+    public int averageUploadedVertices() {
+        return average(this.frameUploads);
+    }
+
+    private int average(int[] values) {
+        if (this.count == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < this.count; i++) {
+            sum += values[i];
+        }
+        return (int) (sum / this.count);
+    }
+
+    public void clear() {
+        this.next = 0;
+        this.count = 0;
+    }
+}
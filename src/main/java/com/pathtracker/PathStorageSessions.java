@@ -10,25 +10,40 @@ import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.registry.RegistryKey;
 import net.minecraft.world.World;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet; // still used for sessions
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 public class PathStorageSessions {
     public static enum Modes {
         DEFAULT,
         GROUPED
     }
+    // PATH records every step in order, VISITS only distinct blocks with visit counts.
+    public static enum StorageModes {
+        PATH,
+        VISITS
+    }
     private final Path dataStoragePath;
     private HashSet<String> sessions;
     private String currentSession = "default";
@@ -39,15 +54,41 @@ public class PathStorageSessions {
     private int groupSize = 5;
     private int subdivisions = 16;
     private int renderDistance = 256;
+    // Maximum number of path vertices built per frame.
+    private int buildBudget = 100000;
+    private StorageModes storageMode = StorageModes.PATH;
+    // Largest distance in blocks a position left out by PathSimplifier may have from the path, 0 to keep every position.
+    private float simplifyTolerance = 0.0f;
+    // Seconds between two autosaves of the changed dimensions, 0 to only save on demand.
+    private int autosaveInterval = 300;
+    // Minutes of the path shown by the overlay, counted back from now. 0 to show all of it.
+    private int timeWindow = 0;
+    // Duration and size of the last save and load, written by the I/O thread. -1 if none yet.
+    private volatile long lastSaveNanos = -1;
+    private volatile long lastSaveBytes = 0;
+    private volatile long lastLoadNanos = -1;
+    private volatile long lastLoadBytes = 0;
+    // Per-session stats of the stored data, updated on the I/O thread.
+    private final SessionCatalog catalog;
+    // Per-file save state, keyed by the path of the main data file.
+    private final Map<Path, PathDataFile> dataFiles = new ConcurrentHashMap<>();
+    // Loads and writes path data and compacts journals, off the client thread.
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "PathTracker-IO");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     // The file structure for PathStorageSessions:
     //  \CONFIG
     //  └───pathtracer
     //      │   sessions.json
     //      │   settings.json
+    //      │   catalog.json
     //      │
     //      └───default
     //          path_data_MAP_NAME_overworld.bin
+    //          path_data_MAP_NAME_overworld.journal
     //          path_data_MAP_NAME_the_nether.bin
     //          path_data_MAP_NAME_the_end.bin
 
@@ -60,17 +101,16 @@ public class PathStorageSessions {
                 if (!Files.exists(dataStoragePath.resolve("default"))) {
                     Files.createDirectories(dataStoragePath.resolve("default"));
                     if (!Files.exists(dataStoragePath.resolve("sessions.json"))) {
-                        try (Writer writer = Files.newBufferedWriter(dataStoragePath.resolve("sessions.json"))) {
+                        try {
                             JsonArray array = new JsonArray();
                             array.add("default");
-                            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-                            gson.toJson(array, writer);
+                            writeJson(dataStoragePath.resolve("sessions.json"), array);
                         } catch (IOException e) {
                             e.printStackTrace();
                         }
                     }
                     if (!Files.exists(dataStoragePath.resolve("settings.json"))) {
-                        try (Writer writer = Files.newBufferedWriter(dataStoragePath.resolve("settings.json"))) {
+                        try {
                             JsonObject obj = new JsonObject();
                             obj.addProperty("currentSession", "default");
                             obj.addProperty("color", "0xFF0000");
@@ -80,8 +120,12 @@ public class PathStorageSessions {
                             obj.addProperty("groupSize", 5);
                             obj.addProperty("subdivisions", 16);
                             obj.addProperty("renderDistance", 256);
-                            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-                            gson.toJson(obj, writer);
+                            obj.addProperty("buildBudget", 100000);
+                            obj.addProperty("storageMode", StorageModes.PATH.toString());
+                            obj.addProperty("simplifyTolerance", 0.0f);
+                            obj.addProperty("autosaveInterval", 300);
+                            obj.addProperty("timeWindow", 0);
+                            writeJson(dataStoragePath.resolve("settings.json"), obj);
                         } catch (IOException e) {
                             e.printStackTrace();
                         }
@@ -93,7 +137,12 @@ public class PathStorageSessions {
         }
         // Automatically convert any legacy JSON path-data files to the new binary format.
         convertAllJsonToBinary();
+        // And the raw binary files of older versions to the compact format.
+        convertAllLegacyBinary();
         loadSessions();
+        this.catalog = new SessionCatalog(dataStoragePath.resolve("catalog.json"));
+        this.catalog.load();
+        scanUncatalogedSessions();
     }
 
     private void loadSessions() {
@@ -142,6 +191,21 @@ public class PathStorageSessions {
             if (obj.has("renderDistance")) {
                 this.renderDistance = obj.get("renderDistance").getAsInt();
             }
+            if (obj.has("buildBudget")) {
+                this.buildBudget = obj.get("buildBudget").getAsInt();
+            }
+            if (obj.has("storageMode")) {
+                this.storageMode = StorageModes.valueOf(obj.get("storageMode").getAsString());
+            }
+            if (obj.has("simplifyTolerance")) {
+                this.simplifyTolerance = obj.get("simplifyTolerance").getAsFloat();
+            }
+            if (obj.has("autosaveInterval")) {
+                this.autosaveInterval = obj.get("autosaveInterval").getAsInt();
+            }
+            if (obj.has("timeWindow")) {
+                this.timeWindow = obj.get("timeWindow").getAsInt();
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -152,14 +216,30 @@ public class PathStorageSessions {
         for (String session : this.sessions) {
             array.add(session);
         }
-        try (Writer writer = Files.newBufferedWriter(dataStoragePath.resolve("sessions.json"))) {
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            gson.toJson(array, writer);
+        try {
+            writeJson(dataStoragePath.resolve("sessions.json"), array);
         } catch (IOException e) {
             e.printStackTrace();
         } 
     }  
 
+    /**
+     * Writes the JSON to a temporary file and moves it over the given file, so
+     * a crash while writing leaves the old file intact.
+     */
+    static void writeJson(Path file, JsonElement json) throws IOException {
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tempFile)) {
+            Gson gson = new GsonBuilder().setPrettyPrinting().create();
+            gson.toJson(json, writer);
+        }
+        try {
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     public HashSet<String> getSessions() {
         return this.sessions;
     }
@@ -168,9 +248,19 @@ public class PathStorageSessions {
         if (!this.sessions.contains(sessionName)) {
             this.sessions.add(sessionName);
             dumpSessions();
+            this.catalog.addSession(sessionName);
+            saveCatalog();
         }
     }
 
+    /**
+     * Returns the stats of the data stored for the session, or null if they
+     * aren't known yet. Only reads the catalog, no data files.
+     */
+    public SessionCatalog.Summary getSessionSummary(String sessionName) {
+        return this.catalog.summarize(sessionName);
+    }
+
     public String getCurrentSession() {
         return this.currentSession;
     }
@@ -243,8 +333,53 @@ public class PathStorageSessions {
         dumpSettings();
     }
 
+    public int getBuildBudget() {
+        return this.buildBudget;
+    }
+
+    public void setBuildBudget(int buildBudget) {
+        this.buildBudget = buildBudget;
+        dumpSettings();
+    }
+
+    public StorageModes getStorageMode() {
+        return this.storageMode;
+    }
+
+    public void setStorageMode(StorageModes storageMode) {
+        this.storageMode = storageMode;
+        dumpSettings();
+    }
+
+    public float getSimplifyTolerance() {
+        return this.simplifyTolerance;
+    }
+
+    public void setSimplifyTolerance(float simplifyTolerance) {
+        this.simplifyTolerance = simplifyTolerance;
+        dumpSettings();
+    }
+
+    public int getAutosaveInterval() {
+        return this.autosaveInterval;
+    }
+
+    public void setAutosaveInterval(int autosaveInterval) {
+        this.autosaveInterval = autosaveInterval;
+        dumpSettings();
+    }
+
+    public int getTimeWindow() {
+        return this.timeWindow;
+    }
+
+    public void setTimeWindow(int timeWindow) {
+        this.timeWindow = timeWindow;
+        dumpSettings();
+    }
+
     private void dumpSettings() {
-        try (Writer writer = Files.newBufferedWriter(dataStoragePath.resolve("settings.json"))) {
+        try {
             JsonObject obj = new JsonObject();
             obj.addProperty("currentSession", this.currentSession);
             obj.addProperty("color", color);
@@ -254,8 +389,12 @@ public class PathStorageSessions {
             obj.addProperty("groupSize", this.groupSize);
             obj.addProperty("subdivisions", this.subdivisions); 
             obj.addProperty("renderDistance", this.renderDistance);
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            gson.toJson(obj, writer);
+            obj.addProperty("buildBudget", this.buildBudget);
+            obj.addProperty("storageMode", this.storageMode.toString());
+            obj.addProperty("simplifyTolerance", this.simplifyTolerance);
+            obj.addProperty("autosaveInterval", this.autosaveInterval);
+            obj.addProperty("timeWindow", this.timeWindow);
+            writeJson(dataStoragePath.resolve("settings.json"), obj);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -314,54 +453,587 @@ public class PathStorageSessions {
     }
 
     /**
-     * Saves the path data for each dimension in a binary file.
-     * Each BlockPos is serialized as 3 ints (4 bytes each, 12 bytes total per block).
+     * Rewrites all main path-data files of the raw 12-byte format in the compact
+     * format of {@link PathFileFormat}. Files already in that format are left alone.
      */
-    public void save(String sessionName, String mapName, Map<RegistryKey<World>, List<BlockPos>> visitedPositionsMap) {
+    private void convertAllLegacyBinary() {
+        try (DirectoryStream<Path> sessionDirs = Files.newDirectoryStream(dataStoragePath, Files::isDirectory)) {
+            for (Path sessionDir : sessionDirs) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(sessionDir, "path_data_*.bin")) {
+                    for (Path binFile : stream) {
+                        try {
+                            if (getDataFile(binFile).upgradeFormat()) {
+                                System.out.println("[PathTracker] Converted " + binFile.getFileName() + " to the compact format.");
+                            }
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Saves the path data for each dimension in a binary file, see
+     * {@link PathFileFormat} for the encoding.
+     * Positions already on disk are not written again, see {@link PathDataFile}.
+     *
+     * Visit counts are saved next to them, see {@link VisitDataFile}.
+     * The {@link SessionCatalog} is updated with what was written.
+     *
+     * The files are written on the I/O thread, so the given stores must not change
+     * anymore (pass {@link PositionStore#snapshot()}s and {@link VisitCountStore#copy()}s).
+     * The returned future completes once everything is on disk, or exceptionally
+     * if a write failed.
+     */
+    public CompletableFuture<Void> save(String sessionName, String mapName, Map<RegistryKey<World>, PositionStore> visitedPositionsMap,
+                                        Map<RegistryKey<World>, VisitCountStore> visitCountsMap) {
         if (!this.sessions.contains(sessionName)) {
             this.sessions.add(sessionName);
             dumpSessions();
         }
-        for (Map.Entry<RegistryKey<World>, List<BlockPos>> entry : visitedPositionsMap.entrySet()) {
+        mapName = sanitizeMapName(mapName);
+        String catalogMap = mapName;
+        this.catalog.addSession(sessionName);
+        Map<PathDataFile, PositionStore> writes = new HashMap<>();
+        // Dimension file names of the written files, for the catalog
+        Map<PathDataFile, String> writeDimensions = new HashMap<>();
+        for (Map.Entry<RegistryKey<World>, PositionStore> entry : visitedPositionsMap.entrySet()) {
             RegistryKey<World> dimensionKey = entry.getKey();
-            List<BlockPos> positions = entry.getValue();
-            String dimensionName = dimensionKey.getValue().toString().replace(':', '_').replace('/', '_');
-            // mapName might contain special characters not accepted by Windows/Linux!
-            // The full list is as following: '/', '\', ':', '*', '?', '"', '<', '>', '|'
-            // We need to replace all these characters with underscores.
-            mapName = mapName.replace('/', '_').replace('\\', '_').replace(':', '_').replace('*', '_').replace('?', '_').replace('"', '_').replace('<', '_').replace('>', '_').replace('|', '_');
-            // If the mapName is just a single '.' or '..', replace it with an underscore.
-            if (mapName.equals(".") || mapName.equals("..")) {
-                mapName = "_";
-            }
-
+            PositionStore positions = entry.getValue();
+            String dimensionName = dimensionFileName(dimensionKey);
             String fileName = "path_data_" + mapName + "_" + dimensionName + ".bin";
             Path outFile = dataStoragePath.resolve(sessionName).resolve(fileName);
-            if (!Files.exists(dataStoragePath.resolve(sessionName))) {
+            PathDataFile dataFile = getDataFile(outFile);
+            writes.put(dataFile, positions);
+            writeDimensions.put(dataFile, dimensionName);
+        }
+        Map<VisitDataFile, VisitCountStore> visitWrites = new HashMap<>();
+        Map<VisitDataFile, String> visitWriteDimensions = new HashMap<>();
+        for (Map.Entry<RegistryKey<World>, VisitCountStore> entry : visitCountsMap.entrySet()) {
+            String dimensionName = dimensionFileName(entry.getKey());
+            String fileName = "path_visits_" + mapName + "_" + dimensionName + ".bin";
+            VisitDataFile visitFile = new VisitDataFile(dataStoragePath.resolve(sessionName).resolve(fileName));
+            visitWrites.put(visitFile, entry.getValue());
+            visitWriteDimensions.put(visitFile, dimensionName);
+        }
+        Path sessionDir = dataStoragePath.resolve(sessionName);
+        CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            long bytes = 0;
+            IOException failure = null;
+            try {
+                Files.createDirectories(sessionDir);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (Map.Entry<PathDataFile, PositionStore> write : writes.entrySet()) {
+                PathDataFile dataFile = write.getKey();
+                int persistedBefore = dataFile.getPersistedCount();
                 try {
-                    Files.createDirectories(dataStoragePath.resolve(sessionName));
+                    // Only the positions added since the last save or load are appended to the journal.
+                    bytes += dataFile.save(write.getValue());
                 } catch (IOException e) {
                     e.printStackTrace();
+                    failure = e;
+                    continue;
+                }
+                // Appended positions only extend the bounds, a rewrite computes them again.
+                int appendedFrom = persistedBefore >= 0 && persistedBefore <= write.getValue().size() ? persistedBefore : -1;
+                this.catalog.updatePath(sessionName, catalogMap, writeDimensions.get(dataFile), write.getValue(), appendedFrom);
+                if (dataFile.scheduleCompaction()) {
+                    scheduleCompaction(dataFile);
                 }
             }
-            try (DataOutputStream dos = new DataOutputStream(Files.newOutputStream(outFile))) {
-                // Write each BlockPos as 3 ints (12 bytes per position)
-                for (BlockPos pos : positions) {
-                    dos.writeInt(pos.getX());
-                    dos.writeInt(pos.getY());
-                    dos.writeInt(pos.getZ());
+            for (Map.Entry<VisitDataFile, VisitCountStore> write : visitWrites.entrySet()) {
+                try {
+                    bytes += write.getKey().save(write.getValue());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    failure = e;
+                    continue;
                 }
+                this.catalog.updateVisits(sessionName, catalogMap, visitWriteDimensions.get(write.getKey()), write.getValue());
+            }
+            try {
+                this.catalog.save();
             } catch (IOException e) {
                 e.printStackTrace();
             }
+            this.lastSaveNanos = System.nanoTime() - start;
+            this.lastSaveBytes = bytes;
+            if (failure != null) {
+                throw new UncheckedIOException(failure);
+            }
+        }, ioExecutor);
+        return future;
+    }
+
+    /**
+     * Saves the positions and visits tracked in a dimension while its load was
+     * running behind the loaded ones, e.g. when switching away before the load
+     * is done. They are merged on the I/O thread right after the load, so
+     * this doesn't wait for it, and the write comes before any later load of
+     * the same files. tracked and counted may be null, and must not change
+     * anymore. The loaded side is read through the load's snapshot and copy,
+     * as the client may already be appending to the loaded stores.
+     */
+    public CompletableFuture<Void> saveAfterLoad(String sessionName, String mapName, PathLoad load, PositionStore tracked, VisitCountStore counted) {
+        PositionStore merged = new PositionStore();
+        VisitCountStore mergedVisits = new VisitCountStore();
+        try {
+            // Queued before the write below, which only reads the stores once it runs.
+            ioExecutor.execute(() -> {
+                try {
+                    merged.addAll(load.joinSnapshot());
+                    mergedVisits.addAll(load.joinVisitCountsCopy());
+                } catch (CompletionException e) {
+                    // Saved without the history, the save keeps the files that couldn't be read.
+                    e.printStackTrace();
+                }
+                if (tracked != null) {
+                    merged.addAll(tracked);
+                }
+                if (counted != null) {
+                    mergedVisits.addAll(counted);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Map<RegistryKey<World>, PositionStore> positions = new HashMap<>();
+        Map<RegistryKey<World>, VisitCountStore> visits = new HashMap<>();
+        if (tracked != null) {
+            positions.put(load.getDimension(), merged);
+        }
+        if (counted != null) {
+            visits.put(load.getDimension(), mergedVisits);
+        }
+        return save(sessionName, mapName, positions, visits);
+    }
+
+    /**
+     * Queues writing catalog.json on the I/O thread, which also updates it
+     * after saves.
+     */
+    private void saveCatalog() {
+        try {
+            ioExecutor.execute(() -> {
+                try {
+                    this.catalog.save();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the catalog is rebuilt from the data files on the next launch.
         }
     }
 
     /**
-     * Loads the path data for each dimension from the binary files.
+     * Queues reading the data files of the sessions that aren't in the catalog
+     * yet, like those saved by older versions, to add their stats. This reads
+     * the files once, later saves update the catalog incrementally.
      */
-    public Map<RegistryKey<World>, List<BlockPos>> load(String sessionName, String mapName) {
-        Map<RegistryKey<World>, List<BlockPos>> visitedPositionsMap = new HashMap<>();
+    private void scanUncatalogedSessions() {
+        List<String> missing = new ArrayList<>();
+        for (String session : this.sessions) {
+            if (!this.catalog.hasSession(session)) {
+                missing.add(session);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        ioExecutor.execute(() -> {
+            for (String session : missing) {
+                scanSession(session);
+            }
+            try {
+                this.catalog.save();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            System.out.println("[PathTracker] Added " + missing.size() + " session(s) to the catalog.");
+        });
+    }
+
+    private void scanSession(String session) {
+        this.catalog.addSession(session);
+        Path sessionDir = dataStoragePath.resolve(session);
+        Set<String> names = listFileNames(sessionDir, "path_data_", true);
+        names.addAll(listFileNames(sessionDir, "path_visits_", false));
+        for (String name : names) {
+            SessionCatalog.Entry entry = new SessionCatalog.Entry();
+            try {
+                // Paths are streamed, so old sessions don't need to fit in memory.
+                PathDataFile dataFile = getDataFile(sessionDir.resolve("path_data_" + name + ".bin"));
+                dataFile.stream((packed, joins, times, count) -> {
+                    entry.includeAll(packed, count);
+                    entry.points += count;
+                });
+                Path visitPath = sessionDir.resolve("path_visits_" + name + ".bin");
+                if (Files.exists(visitPath)) {
+                    VisitCountStore visits = new VisitDataFile(visitPath).load();
+                    entry.includeAll(visits);
+                    entry.visitedBlocks = visits.size();
+                }
+                for (String fileName : new String[] {"path_data_" + name + ".bin", "path_data_" + name + ".journal", "path_visits_" + name + ".bin"}) {
+                    Path file = sessionDir.resolve(fileName);
+                    if (Files.exists(file)) {
+                        entry.lastModified = Math.max(entry.lastModified, Files.getLastModifiedTime(file).toMillis());
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            this.catalog.putEntry(session, name, entry);
+        }
+    }
+
+    /**
+     * Returns the names of the files in the session directory with the given
+     * prefix, without prefix and extension. Path data can be only in a journal
+     * before its main file is first written, so journals are included if asked.
+     */
+    private static Set<String> listFileNames(Path sessionDir, String prefix, boolean journals) {
+        Set<String> names = new HashSet<>();
+        if (!Files.isDirectory(sessionDir)) {
+            return names;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(sessionDir, prefix + "*")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                String extension = fileName.endsWith(".bin") ? ".bin" : journals && fileName.endsWith(".journal") ? ".journal" : null;
+                if (extension != null && fileName.length() > prefix.length() + extension.length()) {
+                    names.add(fileName.substring(prefix.length(), fileName.length() - extension.length()));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return names;
+    }
+
+    /**
+     * Merges the stored data of sessions a and b into the target session,
+     * which must be new or a itself. For every map and dimension, the path of
+     * a is followed by the path of b, and their visit counts are added up.
+     *
+     * Paths are streamed block by block from the source files into the new
+     * file on the I/O thread, so memory use doesn't grow with their size.
+     * None of the sessions may be written by saves meanwhile, except a and b
+     * if they only gain positions. The returned future completes with the
+     * number of files written.
+     */
+    public CompletableFuture<Integer> mergeSessions(String a, String b, String target) {
+        addNewSession(target);
+        Path dirA = dataStoragePath.resolve(a);
+        Path dirB = dataStoragePath.resolve(b);
+        Path targetDir = dataStoragePath.resolve(target);
+        return CompletableFuture.supplyAsync(() -> {
+            int files = 0;
+            try {
+                Files.createDirectories(targetDir);
+                Set<String> pathNames = listFileNames(dirA, "path_data_", true);
+                pathNames.addAll(listFileNames(dirB, "path_data_", true));
+                Set<String> visitNames = listFileNames(dirA, "path_visits_", false);
+                visitNames.addAll(listFileNames(dirB, "path_visits_", false));
+                Map<String, SessionCatalog.Entry> entries = new HashMap<>();
+                for (String name : pathNames) {
+                    String fileName = "path_data_" + name + ".bin";
+                    SessionCatalog.Entry entry = entries.computeIfAbsent(name, key -> new SessionCatalog.Entry());
+                    entry.points = getDataFile(targetDir.resolve(fileName)).replace(writer -> {
+                        PathFileFormat.BlockConsumer copy = (packed, joins, times, count) -> {
+                            writer.addAll(packed, joins, times, count);
+                            entry.includeAll(packed, count);
+                        };
+                        getDataFile(dirA.resolve(fileName)).stream(copy);
+                        getDataFile(dirB.resolve(fileName)).stream(copy);
+                    });
+                    files++;
+                }
+                for (String name : visitNames) {
+                    String fileName = "path_visits_" + name + ".bin";
+                    // Visit counts hold each block once, so they are merged in memory.
+                    VisitCountStore visits = new VisitDataFile(dirA.resolve(fileName)).load();
+                    visits.addAll(new VisitDataFile(dirB.resolve(fileName)).load());
+                    new VisitDataFile(targetDir.resolve(fileName)).save(visits);
+                    SessionCatalog.Entry entry = entries.computeIfAbsent(name, key -> new SessionCatalog.Entry());
+                    entry.includeAll(visits);
+                    entry.visitedBlocks = visits.size();
+                    files++;
+                }
+                for (Map.Entry<String, SessionCatalog.Entry> entry : entries.entrySet()) {
+                    entry.getValue().lastModified = System.currentTimeMillis();
+                    this.catalog.putEntry(target, entry.getKey(), entry.getValue());
+                }
+                this.catalog.save();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return files;
+        }, ioExecutor);
+    }
+
+    /**
+     * Moves the positions and visited blocks of the source session inside the
+     * given horizontal box (inclusive) to the new target session. Segments
+     * crossing the box edge are cut there.
+     *
+     * Like {@link #mergeSessions}, paths are streamed block by block, and
+     * neither session may be written by saves meanwhile. The returned future
+     * completes with the number of files written to the target.
+     */
+    public CompletableFuture<Integer> splitSession(String source, String target, int x1, int z1, int x2, int z2) {
+        addNewSession(target);
+        int minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+        int minZ = Math.min(z1, z2), maxZ = Math.max(z1, z2);
+        Path sourceDir = dataStoragePath.resolve(source);
+        Path targetDir = dataStoragePath.resolve(target);
+        return CompletableFuture.supplyAsync(() -> {
+            int files = 0;
+            try {
+                Files.createDirectories(targetDir);
+                Map<String, SessionCatalog.Entry> insideEntries = new HashMap<>();
+                Map<String, SessionCatalog.Entry> outsideEntries = new HashMap<>();
+                for (String name : listFileNames(sourceDir, "path_data_", true)) {
+                    String fileName = "path_data_" + name + ".bin";
+                    PathDataFile sourceFile = getDataFile(sourceDir.resolve(fileName));
+                    PathDataFile targetFile = getDataFile(targetDir.resolve(fileName));
+                    SessionCatalog.Entry inside = insideEntries.computeIfAbsent(name, key -> new SessionCatalog.Entry());
+                    SessionCatalog.Entry outside = outsideEntries.computeIfAbsent(name, key -> new SessionCatalog.Entry());
+                    int[] insideCount = new int[1];
+                    // The target is written before the source is replaced, so a crash can duplicate positions but not lose them.
+                    outside.points = sourceFile.replace(outsideWriter -> {
+                        insideCount[0] = targetFile.replace(insideWriter -> {
+                            // Side of the previous position, a position only stays joined to one on its side.
+                            boolean[] previousInside = new boolean[1];
+                            sourceFile.stream((packed, joins, times, count) -> {
+                                for (int i = 0; i < count; i++) {
+                                    int x = PositionStore.unpackX(packed[i]);
+                                    int z = PositionStore.unpackZ(packed[i]);
+                                    boolean isInside = x >= minX && x <= maxX && z >= minZ && z <= maxZ;
+                                    boolean joined = joins != null && (joins[i >> 6] & (1L << i)) != 0 && previousInside[0] == isInside;
+                                    (isInside ? insideWriter : outsideWriter).add(packed[i], joined, times != null ? times[i] : 0);
+                                    (isInside ? inside : outside).include(x, PositionStore.unpackY(packed[i]), z);
+                                    previousInside[0] = isInside;
+                                }
+                            });
+                        });
+                    });
+                    inside.points = insideCount[0];
+                    if (inside.points == 0) {
+                        targetFile.delete();
+                    } else {
+                        files++;
+                    }
+                    if (outside.points == 0) {
+                        sourceFile.delete();
+                    }
+                }
+                for (String name : listFileNames(sourceDir, "path_visits_", false)) {
+                    String fileName = "path_visits_" + name + ".bin";
+                    VisitDataFile sourceFile = new VisitDataFile(sourceDir.resolve(fileName));
+                    VisitDataFile targetFile = new VisitDataFile(targetDir.resolve(fileName));
+                    VisitCountStore visits = sourceFile.load();
+                    VisitCountStore insideVisits = new VisitCountStore();
+                    VisitCountStore outsideVisits = new VisitCountStore();
+                    for (int i = 0; i < visits.size(); i++) {
+                        int x = visits.getX(i);
+                        int z = visits.getZ(i);
+                        boolean isInside = x >= minX && x <= maxX && z >= minZ && z <= maxZ;
+                        (isInside ? insideVisits : outsideVisits).add(visits.get(i), visits.getCount(i), visits.getLinks(i));
+                    }
+                    SessionCatalog.Entry inside = insideEntries.computeIfAbsent(name, key -> new SessionCatalog.Entry());
+                    SessionCatalog.Entry outside = outsideEntries.computeIfAbsent(name, key -> new SessionCatalog.Entry());
+                    inside.includeAll(insideVisits);
+                    inside.visitedBlocks = insideVisits.size();
+                    outside.includeAll(outsideVisits);
+                    outside.visitedBlocks = outsideVisits.size();
+                    if (!insideVisits.isEmpty()) {
+                        targetFile.save(insideVisits);
+                        files++;
+                    }
+                    if (outsideVisits.isEmpty()) {
+                        Files.deleteIfExists(sourceFile.getDataFile());
+                    } else {
+                        sourceFile.save(outsideVisits);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                for (Map.Entry<String, SessionCatalog.Entry> entry : insideEntries.entrySet()) {
+                    entry.getValue().lastModified = now;
+                    if (entry.getValue().points > 0 || entry.getValue().visitedBlocks > 0) {
+                        this.catalog.putEntry(target, entry.getKey(), entry.getValue());
+                    }
+                }
+                for (Map.Entry<String, SessionCatalog.Entry> entry : outsideEntries.entrySet()) {
+                    entry.getValue().lastModified = now;
+                    if (entry.getValue().points > 0 || entry.getValue().visitedBlocks > 0) {
+                        this.catalog.putEntry(source, entry.getKey(), entry.getValue());
+                    } else {
+                        this.catalog.removeEntry(source, entry.getKey());
+                    }
+                }
+                this.catalog.save();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return files;
+        }, ioExecutor);
+    }
+
+    /**
+     * Queues folding the journal of the given file into its main file, behind
+     * any save that is already queued.
+     */
+    private void scheduleCompaction(PathDataFile dataFile) {
+        try {
+            ioExecutor.execute(() -> {
+                try {
+                    dataFile.compact();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Shutting down, the journal is compacted on the next launch instead.
+        }
+    }
+
+    public long getLastSaveNanos() {
+        return this.lastSaveNanos;
+    }
+
+    public long getLastSaveBytes() {
+        return this.lastSaveBytes;
+    }
+
+    public long getLastLoadNanos() {
+        return this.lastLoadNanos;
+    }
+
+    public long getLastLoadBytes() {
+        return this.lastLoadBytes;
+    }
+
+    /**
+     * Stops the I/O thread, waiting at most the given time for queued work to finish.
+     */
+    public void shutdown(long timeout, TimeUnit unit) {
+        ioExecutor.shutdown();
+        try {
+            if (!ioExecutor.awaitTermination(timeout, unit)) {
+                System.out.println("[PathTracker] Timed out waiting for path data to be saved.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Loads the path data and visit counts of one dimension from the binary
+     * files. Any dimension can be loaded, the file names are derived from its
+     * key the same way save does.
+     *
+     * The files are read on the I/O thread, after any save queued before. The
+     * returned load publishes the positions read so far while it runs.
+     */
+    public PathLoad load(String sessionName, String mapName, RegistryKey<World> dimension) {
+        PathLoad pathLoad = new PathLoad(dimension);
+        mapName = sanitizeMapName(mapName);
+        String dimensionName = dimensionFileName(dimension);
+        Path sessionDir = dataStoragePath.resolve(sessionName);
+        Path dataFile = sessionDir.resolve("path_data_" + mapName + "_" + dimensionName + ".bin");
+        VisitDataFile visitFile = new VisitDataFile(sessionDir.resolve("path_visits_" + mapName + "_" + dimensionName + ".bin"));
+
+        try {
+            ioExecutor.execute(() -> {
+                try {
+                    long start = System.nanoTime();
+                    PositionStore positions = readBlockPosBinary(dataFile, pathLoad);
+                    long bytes = 0;
+                    try {
+                        bytes += getDataFile(dataFile).sizeOnDisk();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+
+                    // Visit counts, kept in VISITS storage mode
+                    VisitCountStore visits;
+                    try {
+                        visits = visitFile.load();
+                        bytes += visitFile.sizeOnDisk();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        visits = new VisitCountStore();
+                    }
+                    this.lastLoadNanos = System.nanoTime() - start;
+                    this.lastLoadBytes = bytes;
+
+                    pathLoad.complete(positions, visits);
+                } catch (RuntimeException e) {
+                    pathLoad.fail(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pathLoad.fail(e);
+        }
+        return pathLoad;
+    }
+
+    /**
+     * Lists the session directory on the I/O thread and returns the file names
+     * (see {@link #dimensionFileName}) of the dimensions that have path data or
+     * visit counts stored for the map.
+     */
+    public CompletableFuture<Set<String>> findDimensions(String sessionName, String mapName) {
+        String dataPrefix = "path_data_" + sanitizeMapName(mapName) + "_";
+        String visitsPrefix = "path_visits_" + sanitizeMapName(mapName) + "_";
+        Path sessionDir = dataStoragePath.resolve(sessionName);
+        return CompletableFuture.supplyAsync(() -> {
+            Set<String> dimensions = new HashSet<>();
+            if (!Files.isDirectory(sessionDir)) {
+                return dimensions;
+            }
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(sessionDir)) {
+                for (Path file : files) {
+                    String fileName = file.getFileName().toString();
+                    // A journal can hold positions before the main file is first written.
+                    String extension = fileName.endsWith(".bin") ? ".bin" : fileName.endsWith(".journal") ? ".journal" : null;
+                    if (extension == null) {
+                        continue;
+                    }
+                    String prefix = fileName.startsWith(dataPrefix) ? dataPrefix : fileName.startsWith(visitsPrefix) ? visitsPrefix : null;
+                    if (prefix != null && fileName.length() > prefix.length() + extension.length()) {
+                        dimensions.add(fileName.substring(prefix.length(), fileName.length() - extension.length()));
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return dimensions;
+        }, ioExecutor);
+    }
+
+    /**
+     * Returns the name of the dimension as used in the data file names.
+     */
+    public static String dimensionFileName(RegistryKey<World> dimension) {
+        return dimension.getValue().toString().replace(':', '_').replace('/', '_');
+    }
+
+    /**
+     * Replaces the characters of the map name that aren't allowed in file names.
+     */
+    private static String sanitizeMapName(String mapName) {
         // mapName might contain special characters not accepted by Windows/Linux!
         // The full list is as following: '/', '\', ':', '*', '?', '"', '<', '>', '|'
         // We need to replace all these characters with underscores.
@@ -370,41 +1042,32 @@ public class PathStorageSessions {
         if (mapName.equals(".") || mapName.equals("..")) {
             mapName = "_";
         }
-        String filePrefix = "path_data_" + mapName + "_";
-        
-        // Overworld
-        Path overworldFile = dataStoragePath.resolve(sessionName).resolve(filePrefix + "minecraft_overworld.bin");
-        visitedPositionsMap.put(World.OVERWORLD, readBlockPosBinary(overworldFile));
-        
-        // Nether
-        Path netherFile = dataStoragePath.resolve(sessionName).resolve(filePrefix + "minecraft_the_nether.bin");
-        visitedPositionsMap.put(World.NETHER, readBlockPosBinary(netherFile));
-        
-        // End
-        Path endFile = dataStoragePath.resolve(sessionName).resolve(filePrefix + "minecraft_the_end.bin");
-        visitedPositionsMap.put(World.END, readBlockPosBinary(endFile));
-        
-        return visitedPositionsMap;
+        return mapName;
     }
 
     /**
-     * Helper method to read a list of BlockPos from a binary file.
-     * Reads in 12 bytes at a time (3 ints) until the end of the file.
+     * Helper method to read packed block positions from a binary file and its journal,
+     * publishing the positions read so far to the given load.
      */
-    private List<BlockPos> readBlockPosBinary(Path file) {
-        List<BlockPos> positions = new ArrayList<>();
-        if (Files.exists(file)) {
-            try (DataInputStream dis = new DataInputStream(Files.newInputStream(file))) {
-                while (dis.available() >= 12) {
-                    int x = dis.readInt();
-                    int y = dis.readInt();
-                    int z = dis.readInt();
-                    positions.add(new BlockPos(x, y, z));
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+    private PositionStore readBlockPosBinary(Path file, PathLoad pathLoad) {
+        try {
+            PathDataFile dataFile = getDataFile(file);
+            PositionStore positions = dataFile.load(snapshot -> pathLoad.publish(snapshot.snapshot()));
+            if (dataFile.getDamagedCopy() != null) {
+                pathLoad.setDamagedCopy(dataFile.getDamagedCopy().getFileName().toString());
             }
+            return positions;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new PositionStore();
         }
-        return positions;
+    }
+
+    /**
+     * Returns the data file handle for the given path. Handles are kept so that
+     * they remember how many positions are already on disk.
+     */
+    private PathDataFile getDataFile(Path file) {
+        return this.dataFiles.computeIfAbsent(file, PathDataFile::new);
     }
 }
@@ -1,9 +1,18 @@
 package com.pathtracker;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import org.lwjgl.glfw.GLFW;
 
@@ -17,18 +26,15 @@ import net.fabricmc.fabric.api.client.command.v2.ClientCommandRegistrationCallba
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.keybinding.v1.KeyBindingHelper;
+import net.fabricmc.fabric.api.client.rendering.v1.HudRenderCallback;
 import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderContext;
 import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
 
 import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gui.DrawContext;
 import net.minecraft.client.option.KeyBinding;
-import net.minecraft.client.render.BufferBuilder;
-import net.minecraft.client.render.BufferRenderer;
 import net.minecraft.client.render.Camera;
 import net.minecraft.client.render.GameRenderer;
-import net.minecraft.client.render.Tessellator;
-import net.minecraft.client.render.VertexFormat;
-import net.minecraft.client.render.VertexFormats;
 import net.minecraft.client.gl.ShaderProgram;
 import net.minecraft.client.gl.ShaderProgramKeys;
 import net.minecraft.client.util.InputUtil;
@@ -59,19 +65,58 @@ public class PathTrackerClientMod implements ClientModInitializer {
     private static float cubeGreen = 0.0f;
     private static float cubeBlue = 0.0f;
 
+    // How long shutdown waits for in-flight saves
+    private static final long SHUTDOWN_SAVE_TIMEOUT_SECONDS = 10;
+    // How long the data of a dimension the player left stays loaded
+    private static final long DIMENSION_EVICT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    // How /pathtracker session list shows when a session was last saved
+    private static final DateTimeFormatter SESSION_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
     // Disable/enable depth override
     private static boolean depthOverride = false;
 
+    // Whether the stats overlay is shown
+    private static boolean statsHudEnabled = false;
+    // Frames between two refreshes of the stats overlay text
+    private static final int STATS_HUD_REFRESH_FRAMES = 20;
+
     // Key bindings (press to toggle)
     private static KeyBinding toggleTrackingKey;
     private static KeyBinding toggleRenderingKey;
 
-    // Map to hold visited positions per dimension, stored as an ordered list.
-    private Map<RegistryKey<World>, List<BlockPos>> visitedPositionsMap = new HashMap<>();
+    // Map to hold visited positions per dimension, stored as an ordered list of packed positions.
+    private Map<RegistryKey<World>, PositionStore> visitedPositionsMap = new HashMap<>();
+    // Visit counts per dimension, tracked instead of the ordered path in VISITS storage mode.
+    private Map<RegistryKey<World>, VisitCountStore> visitCountsMap = new HashMap<>();
+    // Simplifiers of the positions tracked per dimension, used while simplification is on.
+    private final Map<RegistryKey<World>, PathSimplifier> simplifierMap = new HashMap<>();
+    // Region buckets over the visited positions, per dimension.
+    private final Map<RegistryKey<World>, PathSpatialIndex> spatialIndexMap = new HashMap<>();
+    // Positions within the time window and their buckets, per dimension, used while the window is set.
+    private final Map<RegistryKey<World>, PathTimeWindow> timeWindowMap = new HashMap<>();
     // Storage for path data (for everything)
     PathStorageSessions pathStorageSessions = new PathStorageSessions("pathtracer");
+    // Persistent GPU geometry of the path overlay
+    private final PathMeshCache meshCache = new PathMeshCache();
+    // GPU geometry of the visit count heatmap
+    private final PathHeatmapRenderer heatmapRenderer = new PathHeatmapRenderer();
+    // Render times and geometry of the last frames
+    private final PathRenderStats renderStats = new PathRenderStats();
+    private List<String> statsHudLines = new ArrayList<>();
+    private int statsHudFrames = 0;
     private BlockPos lastTrackedPos = null;
     private String currentMap = null;
+    // Loads of dimensions' path data still running on the I/O thread
+    private final Map<RegistryKey<World>, PathLoad> pendingLoads = new HashMap<>();
+    // Dimensions of the current map whose data is loaded or loading, with the time the player was last in them
+    private final Map<RegistryKey<World>, Long> loadedDimensions = new HashMap<>();
+    // File names of the dimensions with data on disk, once the session directory was listed
+    private CompletableFuture<Set<String>> storedDimensions = CompletableFuture.completedFuture(Set.of());
+    // Dimensions saved when they were evicted, which the listing may not know about yet
+    private final Set<RegistryKey<World>> evictedDimensions = new HashSet<>();
+    // Dimensions whose data changed since it was last saved
+    private final Set<RegistryKey<World>> dirtyDimensions = new HashSet<>();
+    private long lastAutosaveMillis = System.currentTimeMillis();
 
     @Override
     public void onInitializeClient() {
@@ -101,9 +146,15 @@ public class PathTrackerClientMod implements ClientModInitializer {
         // ------------------------------------------------
         ClientTickEvents.END_CLIENT_TICK.register(this::onEndClientTick);
         WorldRenderEvents.AFTER_TRANSLUCENT.register(this::onWorldRender);
+        HudRenderCallback.EVENT.register((drawContext, tickCounter) -> onHudRender(drawContext));
 
-        // Save path data when shutting down
-        ClientLifecycleEvents.CLIENT_STOPPING.register(client -> saveAllPathData());
+        // Save path data when shutting down, waiting a bounded time for the writes to finish
+        ClientLifecycleEvents.CLIENT_STOPPING.register(client -> {
+            saveChangedPathData();
+            pathStorageSessions.shutdown(SHUTDOWN_SAVE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            meshCache.shutdown();
+            heatmapRenderer.shutdown();
+        });
 
         // ------------------------------------------------
         // 3) Commands
@@ -156,8 +207,8 @@ public class PathTrackerClientMod implements ClientModInitializer {
                     // /pathtracker save
                     .then(literal("save")
                         .executes(ctx -> {
-                            saveAllPathData();
-                            ctx.getSource().sendFeedback(Text.literal("[PathTracker] Path data saved successfully."));
+                            ctx.getSource().sendFeedback(Text.literal("[PathTracker] Saving path data..."));
+                            saveChangedPathData().thenRun(() -> sendChatMessage("[PathTracker] Path data saved successfully."));
                             return 1;
                         })
                     )
@@ -172,6 +223,10 @@ public class PathTrackerClientMod implements ClientModInitializer {
                         .then(literal("list")
                             .executes(ctx -> {
                                 ctx.getSource().sendFeedback(Text.literal("[PathTracker] Available sessions: " + pathStorageSessions.getSessions()));
+                                // Stats come from the catalog, no path data is read.
+                                for (String session : pathStorageSessions.getSessions()) {
+                                    ctx.getSource().sendFeedback(Text.literal("  " + formatSessionSummary(session, pathStorageSessions.getSessionSummary(session))));
+                                }
                                 return 1;
                             })
                         )
@@ -197,17 +252,86 @@ public class PathTrackerClientMod implements ClientModInitializer {
                                         ctx.getSource().sendFeedback(Text.literal("[PathTracker] Session not found: " + sessionName));
                                         return 0;
                                     }
-                                    this.saveAllPathData();
+                                    this.saveChangedPathData();
                                     pathStorageSessions.setCurrentSession(sessionName);
-                                    this.visitedPositionsMap = pathStorageSessions.load(sessionName, this.currentMap);
+                                    startLoad();
                                     ctx.getSource().sendFeedback(Text.literal("[PathTracker] Switched to session: " + sessionName + " for map: " + this.currentMap));	
-                                    for (RegistryKey<World> key : visitedPositionsMap.keySet()) {
-                                        System.out.println("[PathTracker] Loaded " + visitedPositionsMap.get(key).size() + " positions for dimension " + key.getValue());
-                                    }
                                     return 1;
                                 })
                             )
                         )
+                        // /pathtracker session merge <a> <b> <target>
+                        .then(literal("merge")
+                            .then(argument("a", StringArgumentType.word())
+                                .then(argument("b", StringArgumentType.word())
+                                    .then(argument("target", StringArgumentType.word())
+                                        .executes(ctx -> {
+                                            String a = StringArgumentType.getString(ctx, "a");
+                                            String b = StringArgumentType.getString(ctx, "b");
+                                            String target = StringArgumentType.getString(ctx, "target");
+                                            if (!pathStorageSessions.getSessions().contains(a) || !pathStorageSessions.getSessions().contains(b)) {
+                                                ctx.getSource().sendFeedback(Text.literal("[PathTracker] Session not found: " + (pathStorageSessions.getSessions().contains(a) ? b : a)));
+                                                return 0;
+                                            }
+                                            if (a.equals(b)) {
+                                                ctx.getSource().sendFeedback(Text.literal("[PathTracker] Can't merge a session with itself."));
+                                                return 0;
+                                            }
+                                            if (!target.equals(a) && pathStorageSessions.getSessions().contains(target)) {
+                                                ctx.getSource().sendFeedback(Text.literal("[PathTracker] The target must be a new session or " + a + "."));
+                                                return 0;
+                                            }
+                                            if (target.equals(pathStorageSessions.getCurrentSession())) {
+                                                ctx.getSource().sendFeedback(Text.literal("[PathTracker] Switch to another session before merging into " + target + "."));
+                                                return 0;
+                                            }
+                                            // Queued before the merge, so the merge includes what was tracked so far.
+                                            this.saveChangedPathData();
+                                            ctx.getSource().sendFeedback(Text.literal("[PathTracker] Merging " + a + " and " + b + " into " + target + "..."));
+                                            reportSessionTask(pathStorageSessions.mergeSessions(a, b, target), "Merged " + a + " and " + b + " into " + target, "merge sessions");
+                                            return 1;
+                                        })
+                                    )
+                                )
+                            )
+                        )
+                        // /pathtracker session split <source> <target> <x1> <z1> <x2> <z2>
+                        .then(literal("split")
+                            .then(argument("source", StringArgumentType.word())
+                                .then(argument("target", StringArgumentType.word())
+                                    .then(argument("x1", IntegerArgumentType.integer())
+                                        .then(argument("z1", IntegerArgumentType.integer())
+                                            .then(argument("x2", IntegerArgumentType.integer())
+                                                .then(argument("z2", IntegerArgumentType.integer())
+                                                    .executes(ctx -> {
+                                                        String source = StringArgumentType.getString(ctx, "source");
+                                                        String target = StringArgumentType.getString(ctx, "target");
+                                                        if (!pathStorageSessions.getSessions().contains(source)) {
+                                                            ctx.getSource().sendFeedback(Text.literal("[PathTracker] Session not found: " + source));
+                                                            return 0;
+                                                        }
+                                                        if (pathStorageSessions.getSessions().contains(target)) {
+                                                            ctx.getSource().sendFeedback(Text.literal("[PathTracker] Session already exists: " + target));
+                                                            return 0;
+                                                        }
+                                                        if (source.equals(pathStorageSessions.getCurrentSession())) {
+                                                            ctx.getSource().sendFeedback(Text.literal("[PathTracker] Switch to another session before splitting " + source + "."));
+                                                            return 0;
+                                                        }
+                                                        ctx.getSource().sendFeedback(Text.literal("[PathTracker] Splitting " + source + "..."));
+                                                        reportSessionTask(pathStorageSessions.splitSession(source, target,
+                                                            IntegerArgumentType.getInteger(ctx, "x1"), IntegerArgumentType.getInteger(ctx, "z1"),
+                                                            IntegerArgumentType.getInteger(ctx, "x2"), IntegerArgumentType.getInteger(ctx, "z2")),
+                                                            "Moved the region of " + source + " to " + target, "split session");
+                                                        return 1;
+                                                    })
+                                                )
+                                            )
+                                        )
+                                    )
+                                )
+                            )
+                        )
                     )
                     // /pathtracker depth on|off
                     .then(literal("depth")
@@ -289,6 +413,93 @@ public class PathTrackerClientMod implements ClientModInitializer {
                             })
                         )
                     )
+                    // /pathtracker buildbudget <value>
+                    .then(literal("buildbudget")
+                        .then(argument("value", IntegerArgumentType.integer(1000, 10000000))
+                            .executes(ctx -> {
+                                int value = IntegerArgumentType.getInteger(ctx, "value");
+                                pathStorageSessions.setBuildBudget(value);
+                                ctx.getSource().sendFeedback(Text.literal("[PathTracker] Build budget set to " + value + " vertices per frame"));
+                                return 1;
+                            })
+                        )
+                    )
+                    // /pathtracker simplify <value>
+                    .then(literal("simplify")
+                        .then(argument("value", IntegerArgumentType.integer(0, 100))
+                            .executes(ctx -> {
+                                int value = IntegerArgumentType.getInteger(ctx, "value");
+                                // In tenths of a block.
+                                pathStorageSessions.setSimplifyTolerance(value / 10.0f);
+                                ctx.getSource().sendFeedback(Text.literal(value == 0
+                                    ? "[PathTracker] Simplification disabled."
+                                    : "[PathTracker] Simplification tolerance set to " + (value / 10.0f) + " blocks"));
+                                return 1;
+                            })
+                        )
+                    )
+                    // /pathtracker autosave <seconds>
+                    .then(literal("autosave")
+                        .then(argument("seconds", IntegerArgumentType.integer(0, 86400))
+                            .executes(ctx -> {
+                                int value = IntegerArgumentType.getInteger(ctx, "seconds");
+                                pathStorageSessions.setAutosaveInterval(value);
+                                ctx.getSource().sendFeedback(Text.literal(value == 0
+                                    ? "[PathTracker] Autosave disabled."
+                                    : "[PathTracker] Autosave interval set to " + value + " seconds"));
+                                return 1;
+                            })
+                        )
+                    )
+                    // /pathtracker window <minutes>
+                    .then(literal("window")
+                        .then(argument("minutes", IntegerArgumentType.integer(0, 525600))
+                            .executes(ctx -> {
+                                int value = IntegerArgumentType.getInteger(ctx, "minutes");
+                                pathStorageSessions.setTimeWindow(value);
+                                ctx.getSource().sendFeedback(Text.literal(value == 0
+                                    ? "[PathTracker] Showing the whole path."
+                                    : "[PathTracker] Showing the path of the last " + value + " minutes"));
+                                return 1;
+                            })
+                        )
+                    )
+                    // /pathtracker storage path|visits
+                    .then(literal("storage")
+                        .then(literal("path").executes(ctx -> {
+                            pathStorageSessions.setStorageMode(PathStorageSessions.StorageModes.PATH);
+                            ctx.getSource().sendFeedback(Text.literal("[PathTracker] Storage mode set to PATH."));
+                            return 1;
+                        }))
+                        .then(literal("visits").executes(ctx -> {
+                            pathStorageSessions.setStorageMode(PathStorageSessions.StorageModes.VISITS);
+                            ctx.getSource().sendFeedback(Text.literal("[PathTracker] Storage mode set to VISITS."));
+                            return 1;
+                        }))
+                    )
+                    // /pathtracker stats
+                    .then(literal("stats")
+                        .executes(ctx -> {
+                            for (String line : statsLines()) {
+                                ctx.getSource().sendFeedback(Text.literal("[PathTracker] " + line));
+                            }
+                            return 1;
+                        })
+                        // /pathtracker stats hud on|off
+                        .then(literal("hud")
+                            .then(literal("on").executes(ctx -> {
+                                statsHudEnabled = true;
+                                statsHudFrames = 0;
+                                ctx.getSource().sendFeedback(Text.literal("[PathTracker] Stats overlay enabled."));
+                                return 1;
+                            }))
+                            .then(literal("off").executes(ctx -> {
+                                statsHudEnabled = false;
+                                ctx.getSource().sendFeedback(Text.literal("[PathTracker] Stats overlay disabled."));
+                                return 1;
+                            }))
+                        )
+                    )
             );
         });
 
@@ -324,13 +535,19 @@ public class PathTrackerClientMod implements ClientModInitializer {
 
         // Initialize storage for the current map if not present or if the map has switched
         if (this.currentMap == null || !this.currentMap.equals(mapName)) {
+            if (this.currentMap != null) {
+                saveChangedPathData();
+            }
             this.currentMap = mapName;
-            this.visitedPositionsMap = pathStorageSessions.load(pathStorageSessions.getCurrentSession(), this.currentMap);
+            startLoad();
             client.player.sendMessage(Text.literal("[PathTracker] Switched to map: " + this.currentMap + " for session: " + pathStorageSessions.getCurrentSession()), false);
-            for (RegistryKey<World> key : visitedPositionsMap.keySet()) {
-                System.out.println("[PathTracker] Loaded " + visitedPositionsMap.get(key).size() + " positions for dimension " + key.getValue());
-            }
         }
+        // Load the data of a dimension when it is first entered, and drop it once it was left for a while
+        ensureLoaded(currentDimension);
+        evictIdleDimensions(currentDimension);
+        // Take over the loaded path data once the I/O thread is done with it
+        finishLoads();
+        autosave();
 
         // If not tracking, skip
         if (!trackingEnabled) return;
@@ -339,15 +556,188 @@ public class PathTrackerClientMod implements ClientModInitializer {
         // Track the block one behind the player
         BlockPos behindPos = getBlockBehindPlayer(client.player);
 
+        if (pathStorageSessions.getStorageMode() == PathStorageSessions.StorageModes.VISITS) {
+            // Only count the visit, walking a block again doesn't grow the data.
+            if (!behindPos.equals(lastTrackedPos)) {
+                visitCountsMap.computeIfAbsent(currentDimension, key -> new VisitCountStore()).visit(behindPos.asLong());
+                dirtyDimensions.add(currentDimension);
+                lastTrackedPos = behindPos;
+            }
+            return;
+        }
+
         // Ensure we have a list for the current dimension
-        visitedPositionsMap.computeIfAbsent(currentDimension, key -> new ArrayList<>());
+        visitedPositionsMap.computeIfAbsent(currentDimension, key -> new PositionStore());
 
         if (!behindPos.equals(lastTrackedPos)) {
-            visitedPositionsMap.get(currentDimension).add(behindPos);
+            float tolerance = pathStorageSessions.getSimplifyTolerance();
+            int time = PositionStore.timeStamp(System.currentTimeMillis());
+            if (tolerance > 0) {
+                simplifierMap.computeIfAbsent(currentDimension, key -> new PathSimplifier())
+                    .add(behindPos.asLong(), time, tolerance, visitedPositionsMap.get(currentDimension));
+            } else {
+                flushSimplifiers();
+                visitedPositionsMap.get(currentDimension).add(behindPos.asLong(), false, time);
+            }
+            // While loading, the overlay indexes the loaded positions instead, see onWorldRender.
+            if (!pendingLoads.containsKey(currentDimension)) {
+                spatialIndexMap.computeIfAbsent(currentDimension, key -> new PathSpatialIndex())
+                    .update(visitedPositionsMap.get(currentDimension));
+            }
+            dirtyDimensions.add(currentDimension);
             lastTrackedPos = behindPos;
         }
     }
 
+    /**
+     * Forgets the loaded data and lists the dimensions the current session has
+     * data for on the current map. Dimensions are then loaded when they are
+     * entered, see {@link #ensureLoaded}.
+     */
+    private void startLoad() {
+        this.visitedPositionsMap = new HashMap<>();
+        this.simplifierMap.clear();
+        this.visitCountsMap = new HashMap<>();
+        this.pendingLoads.clear();
+        this.loadedDimensions.clear();
+        this.evictedDimensions.clear();
+        this.dirtyDimensions.clear();
+        this.storedDimensions = pathStorageSessions.findDimensions(pathStorageSessions.getCurrentSession(), this.currentMap);
+    }
+
+    /**
+     * Starts loading the data of the dimension in the background if it isn't
+     * loaded yet, and marks it as in use. Until the load finishes, tracked
+     * positions go into fresh stores that are appended to the loaded ones
+     * afterwards.
+     */
+    private void ensureLoaded(RegistryKey<World> dimension) {
+        if (this.loadedDimensions.put(dimension, System.currentTimeMillis()) != null) {
+            return;
+        }
+        // Skip the load if the listing is done and there is nothing to read.
+        Set<String> stored = this.storedDimensions.getNow(null);
+        if (stored != null && !stored.contains(PathStorageSessions.dimensionFileName(dimension))
+                && !this.evictedDimensions.contains(dimension)) {
+            return;
+        }
+        this.pendingLoads.put(dimension, pathStorageSessions.load(pathStorageSessions.getCurrentSession(), this.currentMap, dimension));
+    }
+
+    /**
+     * Merges the pending loads into the visited positions once they are done.
+     */
+    private void finishLoads() {
+        Iterator<PathLoad> loads = this.pendingLoads.values().iterator();
+        while (loads.hasNext()) {
+            PathLoad load = loads.next();
+            if (!load.isDone()) {
+                continue;
+            }
+            loads.remove();
+            RegistryKey<World> dimension = load.getDimension();
+            PositionStore loaded;
+            VisitCountStore loadedVisits;
+            try {
+                loaded = load.join();
+                loadedVisits = load.joinVisitCounts();
+                String damagedCopy = load.joinDamagedCopy();
+                if (damagedCopy != null) {
+                    sendChatMessage("[PathTracker] The path data of " + dimension.getValue() + " is damaged. Kept the " + loaded.size()
+                        + " positions before the damage, the old files were moved to " + damagedCopy + ".");
+                }
+            } catch (CompletionException e) {
+                e.printStackTrace();
+                loaded = new PositionStore();
+                loadedVisits = new VisitCountStore();
+                // The next save moves the unread files aside instead of overwriting them.
+                sendChatMessage("[PathTracker] Couldn't load the path data of " + dimension.getValue() + ", see the log. The old files are kept.");
+            }
+            // Positions tracked while loading come after the loaded history. A save
+            // queued by saveAfterLoads reads the load's snapshot, not these stores.
+            PositionStore tracked = this.visitedPositionsMap.get(dimension);
+            if (tracked != null) {
+                loaded.addAll(tracked);
+            }
+            this.visitedPositionsMap.put(dimension, loaded);
+            // Visits counted while loading are added to the loaded counts.
+            VisitCountStore counted = this.visitCountsMap.get(dimension);
+            if (counted != null) {
+                loadedVisits.addAll(counted);
+            }
+            if (!loadedVisits.isEmpty()) {
+                this.visitCountsMap.put(dimension, loadedVisits);
+            }
+            System.out.println("[PathTracker] Loaded " + loaded.size() + " positions for dimension " + dimension.getValue());
+        }
+    }
+
+    /**
+     * Saves and unloads the data of dimensions the player hasn't been in for
+     * a while, so only the dimensions in use take up memory.
+     */
+    private void evictIdleDimensions(RegistryKey<World> currentDimension) {
+        long now = System.currentTimeMillis();
+        Set<RegistryKey<World>> idle = new HashSet<>();
+        for (Map.Entry<RegistryKey<World>, Long> entry : this.loadedDimensions.entrySet()) {
+            if (!entry.getKey().equals(currentDimension) && now - entry.getValue() > DIMENSION_EVICT_MILLIS
+                    && !this.pendingLoads.containsKey(entry.getKey())) {
+                idle.add(entry.getKey());
+            }
+        }
+        if (idle.isEmpty()) {
+            return;
+        }
+        // The save is queued on the I/O thread before any later load of these dimensions.
+        Set<RegistryKey<World>> changed = new HashSet<>(idle);
+        changed.retainAll(this.dirtyDimensions);
+        if (!changed.isEmpty()) {
+            savePathData(changed);
+        }
+        for (RegistryKey<World> dimension : idle) {
+            System.out.println("[PathTracker] Unloading dimension " + dimension.getValue());
+            this.loadedDimensions.remove(dimension);
+            this.visitedPositionsMap.remove(dimension);
+            this.visitCountsMap.remove(dimension);
+            this.spatialIndexMap.remove(dimension);
+            this.timeWindowMap.remove(dimension);
+            this.simplifierMap.remove(dimension);
+            this.evictedDimensions.add(dimension);
+        }
+    }
+
+    /**
+     * Saves the dimensions that changed once the autosave interval has passed.
+     * Dimensions still loading are left for the next autosave.
+     */
+    private void autosave() {
+        int interval = pathStorageSessions.getAutosaveInterval();
+        long now = System.currentTimeMillis();
+        if (interval <= 0 || now - this.lastAutosaveMillis < interval * 1000L) {
+            return;
+        }
+        this.lastAutosaveMillis = now;
+        if (this.dirtyDimensions.isEmpty()) {
+            return;
+        }
+        System.out.println("[PathTracker] Autosaving " + this.dirtyDimensions.size() + " changed dimension(s)");
+        flushSimplifiers();
+        savePathData(new HashSet<>(this.dirtyDimensions));
+    }
+
+    /**
+     * Stores the runs the simplifiers are still holding back, and stops
+     * simplifying once it was turned off.
+     */
+    private void flushSimplifiers() {
+        for (Map.Entry<RegistryKey<World>, PathSimplifier> entry : simplifierMap.entrySet()) {
+            entry.getValue().flush(visitedPositionsMap.computeIfAbsent(entry.getKey(), key -> new PositionStore()));
+        }
+        if (pathStorageSessions.getSimplifyTolerance() <= 0) {
+            simplifierMap.clear();
+        }
+    }
+
     private BlockPos getBlockBehindPlayer(net.minecraft.entity.player.PlayerEntity player) {
         Direction facing = player.getHorizontalFacing();
         BlockPos currentPos = player.getBlockPos();
@@ -359,6 +749,7 @@ public class PathTrackerClientMod implements ClientModInitializer {
      */
     private void onWorldRender(WorldRenderContext context) {
         if (!renderingEnabled) return;
+        long frameStart = System.nanoTime();
     
         MatrixStack matrixStack = context.matrixStack();
         Camera camera = context.camera();
@@ -377,285 +768,257 @@ public class PathTrackerClientMod implements ClientModInitializer {
         }
         RenderSystem.disableCull();
     
-        Tessellator tessellator = Tessellator.getInstance();
-        BufferBuilder buffer = tessellator.begin(VertexFormat.DrawMode.QUADS, VertexFormats.POSITION_COLOR);
-        boolean emptyBuffer = true;
-    
         // Get the current dimension and its visited block centers.
         RegistryKey<World> currentDimension = MinecraftClient.getInstance().world.getRegistryKey();
-        List<BlockPos> visited = visitedPositionsMap.get(currentDimension);
-        if (visited == null || visited.size() == 0) {
-            if (!depthOverride) {
-                RenderSystem.disableDepthTest();
-                RenderSystem.depthMask(true);
+        if (pathStorageSessions.getStorageMode() == PathStorageSessions.StorageModes.VISITS) {
+            // Shown once loaded, counts can't be drawn before they are merged.
+            VisitCountStore visits = this.pendingLoads.containsKey(currentDimension) ? null : visitCountsMap.get(currentDimension);
+            if (visits != null && !visits.isEmpty()) {
+                heatmapRenderer.render(matrixStack, context.frustum(), camPos, visits, pathStorageSessions, cubeRed, cubeGreen, cubeBlue);
+            }
+            restoreRenderState();
+            if (visits != null && !visits.isEmpty()) {
+                renderStats.recordFrame(System.nanoTime() - frameStart, heatmapRenderer.getDrawnVertices(),
+                    heatmapRenderer.getDrawnSections(), heatmapRenderer.getUploadedVertices());
+            } else {
+                renderStats.recordFrame(System.nanoTime() - frameStart, 0, 0, 0);
             }
-            RenderSystem.enableCull();
-            RenderSystem.setShader(ShaderProgramKeys.POSITION_TEX_COLOR);
             return;
         }
-    
-        // Split visited positions into segments whenever the next block isn’t a neighbor.
-        // (We add all segments—even those with a single block—to allow cube rendering.)
-        List<List<BlockPos>> segments = new ArrayList<>();
-        List<BlockPos> currentSegment = new ArrayList<>();
-        currentSegment.add(visited.get(0));
-        int renderDistance = this.pathStorageSessions.getRenderDistance();
-        for (int i = 1; i < visited.size(); i++) {
-            BlockPos current = visited.get(i);
-            // If the current block is > renderDistance blocks away from the player, we dont need to render
-            // because its a waste of resources.
-            // simply x > renderDistance or y > renderDistance or z > renderDistance, not really a distance check.
-            if (Math.abs(current.getX() - camPos.x) > renderDistance || Math.abs(current.getY() - camPos.y) > renderDistance || Math.abs(current.getZ() - camPos.z) > renderDistance) {
-                continue;
-            }
-            BlockPos prev = visited.get(i - 1);
-            if (areNeighbors(prev, current)) {
-                currentSegment.add(current);
+        // While loading, show the part of the history that has been read so far.
+        PathLoad load = this.pendingLoads.get(currentDimension);
+        PositionStore visited = load != null ? load.getProgress() : visitedPositionsMap.get(currentDimension);
+        boolean drawn = visited != null && visited.size() > 0;
+        PathSpatialIndex index = null;
+        if (drawn) {
+            // Catch up on positions that were loaded rather than tracked.
+            index = spatialIndexMap.computeIfAbsent(currentDimension, key -> new PathSpatialIndex());
+            index.update(visited);
+            int timeWindow = pathStorageSessions.getTimeWindow();
+            if (timeWindow > 0) {
+                // Only the positions recorded within the window, with buckets of their own.
+                PathTimeWindow window = timeWindowMap.computeIfAbsent(currentDimension, key -> new PathTimeWindow());
+                visited = window.update(visited, PositionStore.timeStamp(System.currentTimeMillis() - timeWindow * 60000L));
+                index = window.getIndex();
+                drawn = visited.size() > 0;
             } else {
-                segments.add(currentSegment);
-                currentSegment = new ArrayList<>();
-                currentSegment.add(current);
+                timeWindowMap.clear();
             }
         }
-        segments.add(currentSegment);
-    
-        final int subdivisions = this.pathStorageSessions.getSubdivisions();
-        final double thickness = this.pathStorageSessions.getThickness();
-        float alpha = pathStorageSessions.getTransparency();
-    
-        // Process each segment.
-        for (List<BlockPos> segment : segments) {
-            // If the segment contains less than two blocks, render using the old cube code.
-            if (segment.size() < 2) {
-                // Define cube size and offset to center the cube within the block
-                float cubeSize = 0.6f;
-                float halfSize = cubeSize / 2.0f;  // 0.3
-                
-                for (BlockPos pos : segment) {
-                    // Block center in world space
-                    double centerX = pos.getX() + 0.5;
-                    double centerY = pos.getY() + 0.5;
-                    double centerZ = pos.getZ() + 0.5;
-                
-                    // Convert to camera-relative coordinates
-                    double x = centerX - camPos.x;
-                    double y = centerY - camPos.y;
-                    double z = centerZ - camPos.z;
-                
-                    // Now define the bounding box around that point
-                    double xMin = x - halfSize;
-                    double xMax = x + halfSize;
-                    double yMin = y - halfSize;
-                    double yMax = y + halfSize;
-                    double zMin = z - halfSize;
-                    double zMax = z + halfSize;
-    
-                    float red = cubeRed;
-                    float green = cubeGreen;
-                    float blue = cubeBlue;
-                    float cubeAlpha = alpha / 2.0f;
-                    emptyBuffer = false;
-                    // Render all 6 faces of the cube:
-                    // FRONT FACE
-                    buffer.vertex(matrixStack.peek().getPositionMatrix(), (float)xMin, (float)yMin, (float)zMax)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMax, (float)yMin, (float)zMax)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMax, (float)yMax, (float)zMax)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMin, (float)yMax, (float)zMax)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMax, (float)yMin, (float)zMin)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMin, (float)yMin, (float)zMin)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMin, (float)yMax, (float)zMin)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMax, (float)yMax, (float)zMin)
-                          .color(red, green, blue, cubeAlpha)
-    
-                    // LEFT FACE
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMin, (float)yMin, (float)zMin)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMin, (float)yMin, (float)zMax)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMin, (float)yMax, (float)zMax)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMin, (float)yMax, (float)zMin)
-                          .color(red, green, blue, cubeAlpha)
-    
-                    // RIGHT FACE
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMax, (float)yMin, (float)zMax)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMax, (float)yMin, (float)zMin)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMax, (float)yMax, (float)zMin)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMax, (float)yMax, (float)zMax)
-                          .color(red, green, blue, cubeAlpha)
-    
-                    // BOTTOM FACE
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMin, (float)yMin, (float)zMin)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMax, (float)yMin, (float)zMin)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMax, (float)yMin, (float)zMax)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMin, (float)yMin, (float)zMax)
-                          .color(red, green, blue, cubeAlpha)
-    
-                    // TOP FACE
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMin, (float)yMax, (float)zMax)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMax, (float)yMax, (float)zMax)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMax, (float)yMax, (float)zMin)
-                          .color(red, green, blue, cubeAlpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(), (float)xMin, (float)yMax, (float)zMin)
-                          .color(red, green, blue, cubeAlpha);
-                }
-                continue; // Move to the next segment.
-            }
-    
-            // Otherwise, for segments with two or more blocks, use spline (quad strip) rendering.
-            List<Vec3d> centers = new ArrayList<>();
-            for (BlockPos pos : segment) {
-                centers.add(new Vec3d(pos.getX() + 0.5, pos.getY() + 0.5, pos.getZ() + 0.5));
-            }
-            List<Vec3d> curvePoints = new ArrayList<>();
-            switch (pathStorageSessions.getMode()) {
-                case DEFAULT:
-                    // Generate a smooth curve through the centers using a Catmull–Rom spline.
-                    for (int i = 0; i < centers.size() - 1; i++) {
-                        Vec3d p0 = (i == 0) ? centers.get(i) : centers.get(i - 1);
-                        Vec3d p1 = centers.get(i);
-                        Vec3d p2 = centers.get(i + 1);
-                        Vec3d p3 = (i + 2 < centers.size()) ? centers.get(i + 2) : centers.get(i + 1);
-                        for (int j = 0; j < subdivisions; j++) {
-                            double t = j / (double) subdivisions;
-                            Vec3d pt = catmullRom(p0, p1, p2, p3, t);
-                            curvePoints.add(pt);
-                        }
-                    }
-                    // Ensure the final center is added.
-                    curvePoints.add(centers.get(centers.size() - 1));
-                    break;
-                case GROUPED:
-                    List<Vec3d> groupedCenters = new ArrayList<>();
-                    int groupSize = pathStorageSessions.getGroupSize();
-                    for (int i = 0; i < centers.size(); i += groupSize) {
-                        int end = Math.min(i + groupSize, centers.size());
-                        double sumX = 0, sumY = 0, sumZ = 0;
-                        for (int j = i; j < end; j++) {
-                            Vec3d p = centers.get(j);
-                            sumX += p.x;
-                            sumY += p.y;
-                            sumZ += p.z;
-                        }
-                        double count = end - i;
-                        groupedCenters.add(new Vec3d(sumX / count, sumY / count, sumZ / count));
-                    }
-                    // --- End grouping ---
-                    if (groupedCenters.size() < 2) continue;
-                    for (int i = 0; i < groupedCenters.size() - 1; i++) {
-                        Vec3d p0 = (i == 0) ? groupedCenters.get(i) : groupedCenters.get(i - 1);
-                        Vec3d p1 = groupedCenters.get(i);
-                        Vec3d p2 = groupedCenters.get(i + 1);
-                        Vec3d p3 = (i + 2 < groupedCenters.size()) ? groupedCenters.get(i + 2) : groupedCenters.get(i + 1);
-                        for (int j = 0; j < subdivisions; j++) {
-                            double t = j / (double) subdivisions;
-                            Vec3d pt = catmullRom(p0, p1, p2, p3, t);
-                            curvePoints.add(pt);
-                        }
-                    }
-                    // Ensure the final grouped center is added.
-                    curvePoints.add(groupedCenters.get(groupedCenters.size() - 1));
-                    break;
-            }
-    
-            // Build a quad strip along the smooth curve for this segment.
-            for (int i = 0; i < curvePoints.size() - 1; i++) {
-                emptyBuffer = false;
-                Vec3d current = curvePoints.get(i);
-                Vec3d next = curvePoints.get(i + 1);
-                Vec3d tangent = next.subtract(current).normalize();
-                // Compute a perpendicular vector to the tangent (facing away from the camera)
-                Vec3d toCam = current.subtract(camPos).normalize();
-                Vec3d perp = tangent.crossProduct(toCam).normalize();
-                Vec3d offsetVec = perp.multiply(thickness);
-                Vec3d currentLeft = current.subtract(offsetVec);
-                Vec3d currentRight = current.add(offsetVec);
-                Vec3d nextLeft = next.subtract(offsetVec);
-                Vec3d nextRight = next.add(offsetVec);
-    
-                buffer.vertex(matrixStack.peek().getPositionMatrix(),
-                    (float)(currentLeft.x - camPos.x),
-                    (float)(currentLeft.y - camPos.y),
-                    (float)(currentLeft.z - camPos.z))
-                        .color(cubeRed, cubeGreen, cubeBlue, alpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(),
-                    (float)(currentRight.x - camPos.x),
-                    (float)(currentRight.y - camPos.y),
-                    (float)(currentRight.z - camPos.z))
-                        .color(cubeRed, cubeGreen, cubeBlue, alpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(),
-                    (float)(nextRight.x - camPos.x),
-                    (float)(nextRight.y - camPos.y),
-                    (float)(nextRight.z - camPos.z))
-                        .color(cubeRed, cubeGreen, cubeBlue, alpha)
-                    .vertex(matrixStack.peek().getPositionMatrix(),
-                    (float)(nextLeft.x - camPos.x),
-                    (float)(nextLeft.y - camPos.y),
-                    (float)(nextLeft.z - camPos.z))
-                        .color(cubeRed, cubeGreen, cubeBlue, alpha);
-            }
+        if (drawn) {
+            // The geometry is cached across frames and only rebuilt when the path or the settings change.
+            // Frustum culling doesn't depend on the depth test, so it also applies with depthOverride on.
+            meshCache.render(matrixStack, context.frustum(), camPos, visited, index, pathStorageSessions, cubeRed, cubeGreen, cubeBlue);
         }
-    
-        if (!emptyBuffer) {
-            BufferRenderer.drawWithGlobalProgram(buffer.end());
+
+        restoreRenderState();
+
+        if (drawn) {
+            renderStats.recordFrame(System.nanoTime() - frameStart, meshCache.getDrawnVertices(),
+                meshCache.getDrawnSections(), meshCache.getUploadedVertices());
+        } else {
+            renderStats.recordFrame(System.nanoTime() - frameStart, 0, 0, 0);
         }
+    }
+
+    private static void restoreRenderState() {
         if (!depthOverride) {
             RenderSystem.disableDepthTest();
             RenderSystem.depthMask(true);
         }
         RenderSystem.enableCull();
         RenderSystem.setShader(ShaderProgramKeys.POSITION_TEX_COLOR);
-
     }
-    
-    
 
     /**
-     * Computes a point on a Catmull–Rom spline given four control points and a parameter t in [0, 1].
-     *
-     * The formula is:  
-     * 0.5 * [2P1 + (P2 – P0)t + (2P0 – 5P1 + 4P2 – P3)t² + (–P0 + 3P1 – 3P2 + P3)t³]
+     * Draws the stats overlay in the top left corner. The text is only
+     * rebuilt every few frames.
      */
-    private Vec3d catmullRom(Vec3d p0, Vec3d p1, Vec3d p2, Vec3d p3, double t) {
-        double t2 = t * t;
-        double t3 = t2 * t;
-        Vec3d term1 = p1.multiply(2.0);
-        Vec3d term2 = p2.subtract(p0).multiply(t);
-        Vec3d term3 = p0.multiply(2.0).subtract(p1.multiply(5.0)).add(p2.multiply(4.0)).subtract(p3).multiply(t2);
-        Vec3d term4 = p0.negate().add(p1.multiply(3.0)).subtract(p2.multiply(3.0)).add(p3).multiply(t3);
-        return term1.add(term2).add(term3).add(term4).multiply(0.5);
+    private void onHudRender(DrawContext drawContext) {
+        if (!statsHudEnabled) return;
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (client.player == null) return;
+        if (statsHudFrames-- <= 0) {
+            statsHudLines = statsLines();
+            statsHudFrames = STATS_HUD_REFRESH_FRAMES;
+        }
+        int y = 2;
+        for (String line : statsHudLines) {
+            drawContext.drawTextWithShadow(client.textRenderer, line, 2, y, 0xFFFFFF);
+            y += 10;
+        }
     }
 
     /**
-     * Returns true if the two block positions are adjacent in every axis.
+     * Returns the performance stats as lines of text: overlay render times and
+     * geometry over the last frames, stored points, memory use and the last
+     * save and load.
      */
-    private boolean areNeighbors(BlockPos a, BlockPos b) {
-        // 2 Steps in any direction (including diagonals)
-        return Math.abs(a.getX() - b.getX()) <= 2 &&
-               Math.abs(a.getY() - b.getY()) <= 2 &&
-               Math.abs(a.getZ() - b.getZ()) <= 2;
+    private List<String> statsLines() {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("Render: p50 %.2f ms, p99 %.2f ms over %d frames",
+            renderStats.percentileNanos(50) / 1.0e6, renderStats.percentileNanos(99) / 1.0e6, renderStats.getFrameCount()));
+        lines.add("Per frame: " + renderStats.averageVertices() + " vertices in " + renderStats.averageSections()
+            + " sections drawn, " + renderStats.averageUploadedVertices() + " vertices uploaded");
+        lines.add("Segments: " + meshCache.getSegmentCount());
+        lines.add("Dimensions: " + loadedDimensions.size() + " loaded, " + storedDimensions.getNow(Set.of()).size() + " stored");
+        long heapBytes = meshCache.estimatedBytes();
+        for (Map.Entry<RegistryKey<World>, PositionStore> entry : visitedPositionsMap.entrySet()) {
+            lines.add("Points in " + entry.getKey().getValue() + ": " + entry.getValue().size());
+            heapBytes += entry.getValue().estimatedBytes();
+        }
+        for (Map.Entry<RegistryKey<World>, VisitCountStore> entry : visitCountsMap.entrySet()) {
+            lines.add("Visited blocks in " + entry.getKey().getValue() + ": " + entry.getValue().size());
+            heapBytes += entry.getValue().estimatedBytes();
+        }
+        for (PathSpatialIndex index : spatialIndexMap.values()) {
+            heapBytes += index.estimatedBytes();
+        }
+        for (PathTimeWindow window : timeWindowMap.values()) {
+            heapBytes += window.estimatedBytes();
+        }
+        heapBytes += heatmapRenderer.estimatedBytes();
+        // POSITION_COLOR vertices take 16 bytes.
+        long bufferedVertices = (long) meshCache.getBufferedVertices() + heatmapRenderer.getBufferedVertices();
+        lines.add(String.format("Memory: ~%.1f MB heap, ~%.1f MB GPU",
+            heapBytes / 1048576.0, bufferedVertices * 16 / 1048576.0));
+        lines.add(ioStatsLine("Last save", pathStorageSessions.getLastSaveNanos(), pathStorageSessions.getLastSaveBytes()));
+        lines.add(ioStatsLine("Last load", pathStorageSessions.getLastLoadNanos(), pathStorageSessions.getLastLoadBytes()));
+        return lines;
+    }
+
+    private static String ioStatsLine(String label, long nanos, long bytes) {
+        if (nanos < 0) {
+            return label + ": none yet";
+        }
+        return String.format("%s: %.1f ms, %.1f KB", label, nanos / 1.0e6, bytes / 1024.0);
+    }
+
+    private static String formatSessionSummary(String session, SessionCatalog.Summary summary) {
+        if (summary == null) {
+            return session + ": not cataloged yet";
+        }
+        if (summary.dimensions == 0) {
+            return session + ": empty";
+        }
+        String line = String.format("%s: %d map(s), %d dimension(s), %d points, %d visited blocks",
+            session, summary.maps, summary.dimensions, summary.points, summary.visitedBlocks);
+        if (summary.hasBounds) {
+            line += String.format(", x %d..%d z %d..%d", summary.minX, summary.maxX, summary.minZ, summary.maxZ);
+        }
+        if (summary.lastModified > 0) {
+            line += ", saved " + SESSION_DATE_FORMAT.format(Instant.ofEpochMilli(summary.lastModified));
+        }
+        return line;
     }
 
-    private void saveAllPathData() {
-        System.out.println("[PathTracker] Saving all path data...");
+    /**
+     * Queues a save of an immutable snapshot of the dimensions that changed
+     * since they were last saved on the I/O thread, so tracking continues while
+     * it is written. Failures are reported in chat.
+     */
+    private CompletableFuture<Void> saveChangedPathData() {
+        System.out.println("[PathTracker] Saving changed path data...");
         System.out.println("[PathTracker] Saving Current session: " + pathStorageSessions.getCurrentSession());
         System.out.println("[PathTracker] Saving Map name: " + this.currentMap);
-        pathStorageSessions.save(pathStorageSessions.getCurrentSession(), this.currentMap, visitedPositionsMap);
+        flushSimplifiers();
+        finishLoads();
+        saveAfterLoads();
+        return savePathData(new HashSet<>(this.dirtyDimensions));
+    }
+
+    /**
+     * Queues saving what was tracked in the dimensions that are still loading,
+     * behind the loaded history once it is read, without waiting for it. The
+     * loads still merge as usual if the session and map stay the same, and
+     * the positions saved here are then already on disk.
+     */
+    private void saveAfterLoads() {
+        String session = pathStorageSessions.getCurrentSession();
+        String map = this.currentMap;
+        for (PathLoad load : this.pendingLoads.values()) {
+            RegistryKey<World> dimension = load.getDimension();
+            if (!this.dirtyDimensions.remove(dimension)) {
+                continue;
+            }
+            PositionStore tracked = visitedPositionsMap.get(dimension);
+            VisitCountStore counted = visitCountsMap.get(dimension);
+            pathStorageSessions.saveAfterLoad(session, map, load, tracked != null ? tracked.snapshot() : null, counted != null ? counted.copy() : null)
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        sendChatMessage("[PathTracker] Failed to save path data: " + cause.getMessage());
+                    }
+                });
+        }
+    }
+
+    /**
+     * Queues a save of the given dimensions and marks them as saved. Dimensions
+     * still loading are skipped, they are saved once merged. If the save fails,
+     * they are marked as changed again.
+     */
+    private CompletableFuture<Void> savePathData(Set<RegistryKey<World>> dimensions) {
+        Map<RegistryKey<World>, PositionStore> snapshot = new HashMap<>();
+        Map<RegistryKey<World>, VisitCountStore> visitsCopy = new HashMap<>();
+        dimensions.removeAll(this.pendingLoads.keySet());
+        this.dirtyDimensions.removeAll(dimensions);
+        for (RegistryKey<World> dimension : dimensions) {
+            PathSimplifier simplifier = simplifierMap.get(dimension);
+            PositionStore positions = visitedPositionsMap.get(dimension);
+            if (positions != null) {
+                if (simplifier != null) {
+                    simplifier.flush(positions);
+                }
+                snapshot.put(dimension, positions.snapshot());
+            }
+            VisitCountStore visits = visitCountsMap.get(dimension);
+            if (visits != null) {
+                visitsCopy.put(dimension, visits.copy());
+            }
+        }
+        String session = pathStorageSessions.getCurrentSession();
+        String map = this.currentMap;
+        return pathStorageSessions.save(session, map, snapshot, visitsCopy)
+            .whenComplete((result, error) -> {
+                if (error != null) {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    sendChatMessage("[PathTracker] Failed to save path data: " + cause.getMessage());
+                    MinecraftClient.getInstance().execute(() -> {
+                        // Still loaded from the same files, so try again with the next save.
+                        if (session.equals(pathStorageSessions.getCurrentSession()) && map.equals(this.currentMap)) {
+                            this.dirtyDimensions.addAll(dimensions);
+                            this.dirtyDimensions.retainAll(this.loadedDimensions.keySet());
+                        }
+                    });
+                }
+            });
+    }
+
+    /**
+     * Reports the outcome of a session merge or split in chat.
+     */
+    private static void reportSessionTask(CompletableFuture<Integer> task, String done, String action) {
+        task.whenComplete((files, error) -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                sendChatMessage("[PathTracker] Failed to " + action + ": " + cause.getMessage());
+            } else {
+                sendChatMessage("[PathTracker] " + done + " (" + files + " files).");
+            }
+        });
+    }
+
+    /**
+     * Shows a message in chat. Safe to call from any thread.
+     */
+    private static void sendChatMessage(String message) {
+        MinecraftClient client = MinecraftClient.getInstance();
+        client.execute(() -> {
+            if (client.player != null) {
+                client.player.sendMessage(Text.literal(message), false);
+            }
+        });
     }
 
     private static boolean setCubeColorFromHex(String rawHex) {
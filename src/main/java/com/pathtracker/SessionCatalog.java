@@ -0,0 +1,297 @@
+package com.pathtracker;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Metadata of the stored data of every session, kept in catalog.json so
+ * sessions can be listed without opening their data files.
+ *
+ * There is an entry per data file name without prefix and extension (the map
+ * and dimension name, see {@link PathStorageSessions#dimensionFileName}).
+ * Entries are updated by the I/O thread after each save; the path's bounds
+ * only grow by the positions appended since the previous save.
+ */
+public class SessionCatalog {
+
+    /**
+     * What is stored for one map and dimension of a session. Also collects
+     * the stats of files that are streamed, see {@link #putEntry}.
+     */
+    public static class Entry {
+        // Null for entries put without them whose file name can't be split reliably.
+        String map;
+        String dimension;
+        long points = 0;
+        int visitedBlocks = 0;
+        boolean hasBounds = false;
+        int minX, minY, minZ;
+        int maxX, maxY, maxZ;
+        long lastModified = 0;
+
+        void include(int x, int y, int z) {
+            if (!this.hasBounds) {
+                this.minX = this.maxX = x;
+                this.minY = this.maxY = y;
+                this.minZ = this.maxZ = z;
+                this.hasBounds = true;
+                return;
+            }
+            this.minX = Math.min(this.minX, x);
+            this.minY = Math.min(this.minY, y);
+            this.minZ = Math.min(this.minZ, z);
+            this.maxX = Math.max(this.maxX, x);
+            this.maxY = Math.max(this.maxY, y);
+            this.maxZ = Math.max(this.maxZ, z);
+        }
+
+        void includeAll(long[] packed, int count) {
+            for (int i = 0; i < count; i++) {
+                include(PositionStore.unpackX(packed[i]), PositionStore.unpackY(packed[i]), PositionStore.unpackZ(packed[i]));
+            }
+        }
+
+        void includeAll(VisitCountStore visits) {
+            for (int i = 0; i < visits.size(); i++) {
+                include(visits.getX(i), visits.getY(i), visits.getZ(i));
+            }
+        }
+    }
+
+    /**
+     * Totals of the entries of a session.
+     */
+    public static class Summary {
+        public int maps;
+        public int dimensions;
+        public long points;
+        public long visitedBlocks;
+        public boolean hasBounds = false;
+        public int minX, minZ, maxX, maxZ;
+        public long lastModified;
+    }
+
+    private static final String[] VANILLA_DIMENSIONS = {"minecraft_overworld", "minecraft_the_nether", "minecraft_the_end"};
+
+    private final Path file;
+    // Session name -> file name without prefix and extension -> entry
+    private final Map<String, Map<String, Entry>> sessions = new HashMap<>();
+
+    public SessionCatalog(Path file) {
+        this.file = file;
+    }
+
+    public synchronized boolean hasSession(String session) {
+        return this.sessions.containsKey(session);
+    }
+
+    public synchronized void addSession(String session) {
+        this.sessions.computeIfAbsent(session, key -> new HashMap<>());
+    }
+
+    /**
+     * Records the positions of a saved path. from is the number of positions
+     * that were on disk before, as only those after it are new to the bounds;
+     * -1 computes them again, e.g. after the file was rewritten.
+     */
+    public synchronized void updatePath(String session, String map, String dimension, PositionStore positions, int from) {
+        Entry entry = entry(session, map, dimension);
+        if (from < 0 || from != entry.points || from > positions.size()) {
+            entry.hasBounds = false;
+            from = 0;
+        }
+        for (int i = from; i < positions.size(); i++) {
+            entry.include(positions.getX(i), positions.getY(i), positions.getZ(i));
+        }
+        entry.points = positions.size();
+        entry.lastModified = System.currentTimeMillis();
+    }
+
+    /**
+     * Records saved visit counts. Their bounds are added to the path's.
+     */
+    public synchronized void updateVisits(String session, String map, String dimension, VisitCountStore visits) {
+        Entry entry = entry(session, map, dimension);
+        entry.includeAll(visits);
+        entry.visitedBlocks = visits.size();
+        entry.lastModified = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the totals of the session, or null if it isn't in the catalog.
+     */
+    public synchronized Summary summarize(String session) {
+        Map<String, Entry> entries = this.sessions.get(session);
+        if (entries == null) {
+            return null;
+        }
+        Summary summary = new Summary();
+        Set<String> maps = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            if (entry.map != null) {
+                maps.add(entry.map);
+            }
+            summary.dimensions++;
+            summary.points += entry.points;
+            summary.visitedBlocks += entry.visitedBlocks;
+            summary.lastModified = Math.max(summary.lastModified, entry.lastModified);
+            if (entry.hasBounds) {
+                summary.minX = summary.hasBounds ? Math.min(summary.minX, entry.minX) : entry.minX;
+                summary.minZ = summary.hasBounds ? Math.min(summary.minZ, entry.minZ) : entry.minZ;
+                summary.maxX = summary.hasBounds ? Math.max(summary.maxX, entry.maxX) : entry.maxX;
+                summary.maxZ = summary.hasBounds ? Math.max(summary.maxZ, entry.maxZ) : entry.maxZ;
+                summary.hasBounds = true;
+            }
+        }
+        // Entries of unknown maps count as one map each.
+        summary.maps = maps.size();
+        for (Entry entry : entries.values()) {
+            if (entry.map == null) {
+                summary.maps++;
+            }
+        }
+        return summary;
+    }
+
+    /**
+     * Sets the entry of a data file that was written or read outside of a
+     * save, e.g. found on disk from an older version, or written by a merge.
+     * name is the file name without prefix and extension.
+     */
+    synchronized void putEntry(String session, String name, Entry entry) {
+        if (entry.map == null) {
+            splitName(name, entry);
+        }
+        this.sessions.computeIfAbsent(session, key -> new HashMap<>()).put(name, entry);
+    }
+
+    synchronized void removeEntry(String session, String name) {
+        Map<String, Entry> entries = this.sessions.get(session);
+        if (entries != null) {
+            entries.remove(name);
+        }
+    }
+
+    /**
+     * Sets map and dimension from an entry of the same name of any session,
+     * or by splitting off a vanilla dimension. Map names may contain
+     * underscores, so other names can't be split reliably.
+     */
+    private void splitName(String name, Entry entry) {
+        for (Map<String, Entry> entries : this.sessions.values()) {
+            Entry known = entries.get(name);
+            if (known != null && known.map != null) {
+                entry.map = known.map;
+                entry.dimension = known.dimension;
+                return;
+            }
+        }
+        for (String dimension : VANILLA_DIMENSIONS) {
+            if (name.endsWith("_" + dimension) && name.length() > dimension.length() + 1) {
+                entry.map = name.substring(0, name.length() - dimension.length() - 1);
+                entry.dimension = dimension;
+            }
+        }
+    }
+
+    private Entry entry(String session, String map, String dimension) {
+        Entry entry = this.sessions.computeIfAbsent(session, key -> new HashMap<>())
+            .computeIfAbsent(map + "_" + dimension, key -> new Entry());
+        entry.map = map;
+        entry.dimension = dimension;
+        return entry;
+    }
+
+    /**
+     * Reads catalog.json. Returns false if it doesn't exist or can't be read,
+     * so it has to be built from the data files.
+     */
+    public synchronized boolean load() {
+        if (!Files.exists(this.file)) {
+            return false;
+        }
+        try (Reader reader = Files.newBufferedReader(this.file)) {
+            JsonElement element = JsonParser.parseReader(reader);
+            if (!element.isJsonObject()) {
+                return false;
+            }
+            for (Map.Entry<String, JsonElement> session : element.getAsJsonObject().entrySet()) {
+                Map<String, Entry> entries = this.sessions.computeIfAbsent(session.getKey(), key -> new HashMap<>());
+                for (Map.Entry<String, JsonElement> stored : session.getValue().getAsJsonObject().entrySet()) {
+                    JsonObject obj = stored.getValue().getAsJsonObject();
+                    Entry entry = new Entry();
+                    if (obj.has("map")) {
+                        entry.map = obj.get("map").getAsString();
+                    }
+                    if (obj.has("dimension")) {
+                        entry.dimension = obj.get("dimension").getAsString();
+                    }
+                    entry.points = obj.get("points").getAsLong();
+                    entry.visitedBlocks = obj.get("visitedBlocks").getAsInt();
+                    if (obj.has("bounds")) {
+                        JsonArray bounds = obj.get("bounds").getAsJsonArray();
+                        entry.hasBounds = true;
+                        entry.minX = bounds.get(0).getAsInt();
+                        entry.minY = bounds.get(1).getAsInt();
+                        entry.minZ = bounds.get(2).getAsInt();
+                        entry.maxX = bounds.get(3).getAsInt();
+                        entry.maxY = bounds.get(4).getAsInt();
+                        entry.maxZ = bounds.get(5).getAsInt();
+                    }
+                    entry.lastModified = obj.get("lastModified").getAsLong();
+                    entries.put(stored.getKey(), entry);
+                }
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            this.sessions.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Writes catalog.json, replacing the old file atomically.
+     */
+    public synchronized void save() throws IOException {
+        JsonObject root = new JsonObject();
+        for (Map.Entry<String, Map<String, Entry>> session : this.sessions.entrySet()) {
+            JsonObject entries = new JsonObject();
+            for (Map.Entry<String, Entry> stored : session.getValue().entrySet()) {
+                Entry entry = stored.getValue();
+                JsonObject obj = new JsonObject();
+                if (entry.map != null) {
+                    obj.addProperty("map", entry.map);
+                    obj.addProperty("dimension", entry.dimension);
+                }
+                obj.addProperty("points", entry.points);
+                obj.addProperty("visitedBlocks", entry.visitedBlocks);
+                if (entry.hasBounds) {
+                    JsonArray bounds = new JsonArray();
+                    bounds.add(entry.minX);
+                    bounds.add(entry.minY);
+                    bounds.add(entry.minZ);
+                    bounds.add(entry.maxX);
+                    bounds.add(entry.maxY);
+                    bounds.add(entry.maxZ);
+                    obj.add("bounds", bounds);
+                }
+                obj.addProperty("lastModified", entry.lastModified);
+                entries.add(stored.getKey(), obj);
+            }
+            root.add(session.getKey(), entries);
+        }
+        PathStorageSessions.writeJson(this.file, root);
+    }
+}